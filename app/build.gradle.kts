@@ -31,10 +31,15 @@ android {
     }
     buildFeatures {
         viewBinding = true
+        buildConfig = true
     }
     dataBinding {
         isEnabled = true
     }
+    testOptions {
+        // Local tests run classes that log through android.util.Log
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -66,4 +71,6 @@ dependencies {
     implementation("io.reactivex.rxjava3:rxjava:3.1.5")
     implementation("io.reactivex.rxjava3:rxandroid:3.0.0")
     implementation("com.squareup.retrofit2:adapter-rxjava3:2.9.0")
+
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.9.3")
 }
\ No newline at end of file
@@ -24,12 +24,18 @@ import androidx.core.content.FileProvider;
 
 import com.example.clouddemo.api.ApiManager;
 import com.example.clouddemo.model.ResponseData;
+import com.example.clouddemo.utils.MediaScheduler;
 import com.example.clouddemo.utils.MediaUtils;
+import com.example.clouddemo.utils.PreviewLoader;
+import com.example.clouddemo.utils.VideoTranscoder;
 import com.example.clouddemo.utils.cloudinary.CloudinaryManager;
 import com.example.clouddemo.utils.cloudinary.CloudinaryTransformationHelper;
+import com.example.clouddemo.utils.cloudinary.UploadQueue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
@@ -44,11 +50,27 @@ public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
     private static final String FILEPROVIDER_AUTHORITY = "com.example.clouddemo.fileprovider";
     private static final int REQUEST_CAMERA_PERMISSION = 100;
+    private static final String VIDEO_FOLDER = "/users/test/videos/";
+    // Shrink videos on the device before uploading them. Off by default: the re-encode is lossy
+    // and the transcoded copy skips the upload dedup of saved files
+    private static final boolean TRANSCODE_BEFORE_UPLOAD = false;
+    private static final VideoTranscoder.Preset TRANSCODE_PRESET = VideoTranscoder.Preset.P720;
+    // Transcoded copies in the cache dir, deleted once their upload finishes
+    private static final String TRANSCODED_FOLDER = "transcoded";
+    // Copies of thumbnails queued for upload, the thumbnail cache may trim or clear the originals
+    private static final String THUMBNAIL_UPLOAD_FOLDER = "thumbnail_uploads";
+    // Upload picked videos straight from their content uri instead of a private copy
+    private static final boolean STREAM_VIDEO_UPLOADS = true;
 
     private Uri currentMediaUri;
     private File savedMediaFile;
+    // Set instead of savedMediaFile when the video is uploaded from its source uri
+    private Uri streamingUri;
+    private long streamingSize;
     private File videoThumbnailFile;
     private CloudinaryManager cloudinaryManager;
+    private UploadQueue uploadQueue;
+    private VideoTranscoder videoTranscoder;
     private String currentMediaType = "image"; // Default to image
 
     private ImageView imagePreview;
@@ -115,6 +137,36 @@ public class MainActivity extends AppCompatActivity {
 
         cloudinaryManager.initialize(config);
 
+        // Start the upload queue, uploads left over from a previous session resume here
+        uploadQueue = UploadQueue.getInstance(this);
+        uploadQueue.setListener((item, result, errorMsg) -> {
+            if (errorMsg == null) {
+                Log.d(TAG, "Restored upload finished: " + item.filePath + " -> " + result.get("url"));
+            } else {
+                Log.e(TAG, "Restored upload failed: " + item.filePath + ": " + errorMsg);
+            }
+            // A copy queued before a restart has no callback left to delete it
+            deleteUploadCopy(new File(item.filePath));
+        });
+        uploadQueue.start();
+
+        // Chunked uploads interrupted by a restart continue from their last acknowledged chunk
+        cloudinaryManager.resumeChunkedUploads(new CloudinaryManager.CloudinaryCallback<Map<String, Object>>() {
+            @Override
+            public void onSuccess(Map<String, Object> result) {
+                Log.d(TAG, "Resumed upload finished: " + result.get("url"));
+            }
+
+            @Override
+            public void onError(String errorMsg) {
+                Log.e(TAG, "Resumed upload failed: " + errorMsg);
+            }
+
+            @Override
+            public void onProgress(int progress) {
+            }
+        });
+
         // Initialize views
         imagePreview = findViewById(R.id.imagePreview);
         videoPreview = findViewById(R.id.videoPreview);
@@ -142,6 +194,16 @@ public class MainActivity extends AppCompatActivity {
 
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // The transcode job holds this activity and its views, a recreated activity would never
+        // see its progress or result, so it stops with every destroy including configuration changes
+        if (videoTranscoder != null) {
+            videoTranscoder.cancel();
+        }
+    }
+
     /**
      * Test del resource
      */
@@ -173,13 +235,15 @@ public class MainActivity extends AppCompatActivity {
     private void TestGetImage() {
         // TODO: rm
         CloudinaryTransformationHelper cloudinaryTransformationHelper = new CloudinaryTransformationHelper();
-        cloudinaryTransformationHelper.autoFormat();
+        // Fetch the full screen width bucket instead of the original
+        cloudinaryTransformationHelper.responsive(getResources().getConfiguration().screenWidthDp,
+                getResources().getDisplayMetrics().density);
         String publicID = "file_kl3hmg";
         String resourceType = "image";
         this.url = cloudinaryManager.getResourceUrl(
                 publicID,
                 resourceType,
-                cloudinaryTransformationHelper.getTransformations()
+                cloudinaryTransformationHelper.compile()
         );
         Log.i(TAG, "URL: " + url);
 
@@ -191,9 +255,13 @@ public class MainActivity extends AppCompatActivity {
                         Log.i(TAG, "File path: " + a.getAbsolutePath());
                         runOnUiThread(() -> {
                             imagePreview.setVisibility(View.VISIBLE);
-                            imagePreview.setImageURI(Uri.fromFile(a));
+                            PreviewLoader.getInstance(this).load(a, imagePreview);
                         });
                     }
+                })
+                .exceptionally(e -> {
+                    Log.e(TAG, "Error loading media", e);
+                    return null;
                 });
     }
 
@@ -298,14 +366,40 @@ public class MainActivity extends AppCompatActivity {
         progressBar.setVisibility(View.VISIBLE);
         previewPlaceholder.setVisibility(View.GONE);
 
-        // Save media to internal storage
-        new Thread(() -> {
+        // Save media to internal storage, image decoding runs on the CPU pool, video copies on the I/O pool
+        Runnable saveTask = () -> {
+            streamingUri = null;
+            if (STREAM_VIDEO_UPLOADS && "video".equals(currentMediaType)) {
+                long size = cloudinaryManager.getStreamableSize(mediaUri);
+                if (size >= 0) {
+                    // Re-readable source, skip the copy
+                    savedMediaFile = null;
+                    streamingUri = mediaUri;
+                    streamingSize = size;
+                    String name = "VID_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+                    videoThumbnailFile = MediaUtils.createVideoThumbnail(this, mediaUri, name);
+                    Log.i(TAG, "Streaming video from " + mediaUri + ", " + size + " bytes not copied");
+                    runOnUiThread(() -> {
+                        showVideoPreview(mediaUri);
+                        progressBar.setVisibility(View.GONE);
+                        btnUpload.setVisibility(View.VISIBLE);
+                        tvStatus.setText("Ready to upload. Click 'Upload to Cloudinary' button.");
+                    });
+                    return;
+                }
+            }
+
             savedMediaFile = MediaUtils.saveMediaToInternalStorage(
                     this,
                     mediaUri,
                     currentMediaType
             );
 
+            // For videos, create a thumbnail while still off the main thread
+            if (savedMediaFile != null && "video".equals(currentMediaType)) {
+                videoThumbnailFile = MediaUtils.createVideoThumbnail(this, savedMediaFile);
+            }
+
             if (savedMediaFile != null) {
                 runOnUiThread(() -> {
                     // Show preview of the media
@@ -314,11 +408,6 @@ public class MainActivity extends AppCompatActivity {
 
                     progressBar.setVisibility(View.GONE);
 
-                    // For videos, create a thumbnail
-                    if ("video".equals(currentMediaType)) {
-                        videoThumbnailFile = MediaUtils.createVideoThumbnail(this, savedMediaFile);
-                    }
-
                     // Show upload button
                     btnUpload.setVisibility(View.VISIBLE);
 
@@ -332,7 +421,12 @@ public class MainActivity extends AppCompatActivity {
                     Toast.makeText(this, "Failed to save media", Toast.LENGTH_SHORT).show();
                 });
             }
-        }).start();
+        };
+        if ("image".equals(currentMediaType)) {
+            MediaScheduler.runCpu(MediaScheduler.PRIORITY_HIGH, saveTask);
+        } else {
+            MediaScheduler.runIo(MediaScheduler.PRIORITY_HIGH, saveTask);
+        }
     }
 
     /**
@@ -344,22 +438,39 @@ public class MainActivity extends AppCompatActivity {
         if ("image".equals(currentMediaType)) {
             imagePreview.setVisibility(View.VISIBLE);
             videoPreview.setVisibility(View.GONE);
-            imagePreview.setImageURI(Uri.fromFile(mediaFile));
+            PreviewLoader.getInstance(this).load(mediaFile, imagePreview);
         } else if ("video".equals(currentMediaType)) {
-            imagePreview.setVisibility(View.GONE);
-            videoPreview.setVisibility(View.VISIBLE);
-            videoPreview.setVideoURI(Uri.fromFile(mediaFile));
-            videoPreview.setOnPreparedListener(mp -> {
-                mp.setLooping(true);
-                videoPreview.start();
-            });
+            showVideoPreview(Uri.fromFile(mediaFile));
         }
     }
 
+    /**
+     * Play a looping video preview
+     *
+     * @param videoUri File or content uri of the video
+     */
+    private void showVideoPreview(Uri videoUri) {
+        imagePreview.setVisibility(View.GONE);
+        videoPreview.setVisibility(View.VISIBLE);
+        videoPreview.setVideoURI(videoUri);
+        videoPreview.setOnPreparedListener(mp -> {
+            mp.setLooping(true);
+            videoPreview.start();
+        });
+    }
+
     /**
      * Upload currently selected media to Cloudinary
      */
     private void uploadToCloudinary() {
+        if (streamingUri != null) {
+            progressBar.setProgress(0);
+            progressBar.setVisibility(View.VISIBLE);
+            tvStatus.setText("Uploading to Cloudinary...");
+            btnUpload.setEnabled(false);
+            uploadVideo(streamingUri);
+            return;
+        }
         if (savedMediaFile == null || !savedMediaFile.exists()) {
             Toast.makeText(this, "No media selected", Toast.LENGTH_SHORT).show();
             return;
@@ -388,9 +499,11 @@ public class MainActivity extends AppCompatActivity {
      */
     private void uploadImage(File imageFile) {
         String folder = "/users/test/images/";
-        cloudinaryManager.uploadImage(
-                Uri.fromFile(imageFile).toString(),
+        uploadQueue.enqueue(
+                imageFile,
+                "image",
                 folder,
+                UploadQueue.PRIORITY_IMAGE,
                 new CloudinaryManager.CloudinaryCallback<Map<String, Object>>() {
                     @Override
                     public void onSuccess(Map<String, Object> result) {
@@ -435,103 +548,234 @@ public class MainActivity extends AppCompatActivity {
 
     /**
      * Upload video to Cloudinary
+     * The thumbnail is queued too and goes out before the video,
+     * the video is transcoded to a smaller file first
      */
     private void uploadVideo(File videoFile) {
-        String folder = "/users/test/videos/";
-        cloudinaryManager.uploadVideo(
-                Uri.fromFile(videoFile).toString(),
-                folder,
-                new CloudinaryManager.CloudinaryCallback<Map<String, Object>>() {
-                    @Override
-                    public void onSuccess(Map<String, Object> result) {
-                        // Video upload successful, now upload thumbnail if available
-                        String publicId = (String) result.get("public_id");
-                        String url = (String) result.get("url");
-                        Log.d(TAG, "Public Id: " + publicId);
-                        Log.d(TAG, "URL: " + url);
-
-                        if (videoThumbnailFile != null && videoThumbnailFile.exists()) {
-                            // Upload thumbnail separately
-                            uploadVideoThumbnail(videoThumbnailFile, publicId, url);
-                        } else {
-                            // No thumbnail, finish here
-                            runOnUiThread(() -> {
-                                progressBar.setVisibility(View.GONE);
-                                btnUpload.setEnabled(true);
-                                tvStatus.setText("Upload successful!\nVideo URL: " + url);
-                                Toast.makeText(MainActivity.this, "Video uploaded successfully", Toast.LENGTH_SHORT).show();
-                            });
-                        }
-                    }
+        if (videoThumbnailFile != null && videoThumbnailFile.exists()) {
+            uploadVideoThumbnail(videoThumbnailFile);
+        }
+        if (!TRANSCODE_BEFORE_UPLOAD) {
+            enqueueVideo(videoFile);
+            return;
+        }
 
-                    @Override
-                    public void onError(String errorMsg) {
-                        runOnUiThread(() -> {
-                            progressBar.setVisibility(View.GONE);
-                            btnUpload.setEnabled(true);
-                            tvStatus.setText("Upload failed: " + errorMsg);
-                            Toast.makeText(MainActivity.this, "Upload failed: " + errorMsg, Toast.LENGTH_SHORT).show();
-                            Log.e(TAG, "Upload failed: " + errorMsg);
-                        });
-                    }
+        final VideoTranscoder transcoder = new VideoTranscoder(TRANSCODE_PRESET);
+        videoTranscoder = transcoder;
+        final File transcodedFile = new File(new File(getCacheDir(), TRANSCODED_FOLDER), videoFile.getName());
+        MediaScheduler.runTransfer(MediaScheduler.PRIORITY_NORMAL, () -> {
+            File uploadFile;
+            try {
+                uploadFile = transcoder.transcode(videoFile, transcodedFile, progress -> runOnUiThread(() -> {
+                    progressBar.setProgress(progress);
+                    tvStatus.setText("Compressing video: " + progress + "%");
+                }));
+            } catch (IOException e) {
+                if (transcoder.isCancelled()) {
+                    Log.d(TAG, "Transcode canceled");
+                    return;
+                }
+                // Still upload, just the original
+                Log.e(TAG, "Transcode failed, uploading original: " + e.getMessage());
+                uploadFile = videoFile;
+            }
+            final File fileToUpload = uploadFile;
+            runOnUiThread(() -> {
+                // Finished just before the activity was destroyed
+                if (transcoder.isCancelled()) {
+                    deleteUploadCopy(fileToUpload);
+                    return;
+                }
+                enqueueVideo(fileToUpload);
+            });
+        });
+    }
 
-                    @Override
-                    public void onProgress(int progress) {
-                        runOnUiThread(() -> {
-                            progressBar.setProgress(progress);
-                            tvStatus.setText("Uploading video: " + progress + "%");
-                        });
-                    }
+    /**
+     * Upload a video read straight from its content uri
+     * The transcoder reads the uri in place, without a transcode the uri itself is uploaded
+     */
+    private void uploadVideo(Uri videoUri) {
+        if (videoThumbnailFile != null && videoThumbnailFile.exists()) {
+            uploadVideoThumbnail(videoThumbnailFile);
+        }
+        final long size = streamingSize;
+        if (!TRANSCODE_BEFORE_UPLOAD) {
+            enqueueVideo(videoUri, size);
+            return;
+        }
+
+        final VideoTranscoder transcoder = new VideoTranscoder(TRANSCODE_PRESET);
+        videoTranscoder = transcoder;
+        final File transcodedFile = new File(new File(getCacheDir(), TRANSCODED_FOLDER),
+                "VID_" + System.currentTimeMillis() + ".mp4");
+        MediaScheduler.runTransfer(MediaScheduler.PRIORITY_NORMAL, () -> {
+            File transcoded;
+            try {
+                transcoded = transcoder.transcode(this, videoUri, transcodedFile, progress -> runOnUiThread(() -> {
+                    progressBar.setProgress(progress);
+                    tvStatus.setText("Compressing video: " + progress + "%");
+                }));
+            } catch (IOException e) {
+                if (transcoder.isCancelled()) {
+                    Log.d(TAG, "Transcode canceled");
+                    return;
+                }
+                Log.e(TAG, "Transcode failed, uploading original: " + e.getMessage());
+                transcoded = null;
+            }
+            final File fileToUpload = transcoded;
+            runOnUiThread(() -> {
+                // Finished just before the activity was destroyed
+                if (transcoder.isCancelled()) {
+                    deleteUploadCopy(fileToUpload);
+                    return;
+                }
+                if (fileToUpload != null) {
+                    enqueueVideo(fileToUpload);
+                } else {
+                    enqueueVideo(videoUri, size);
+                }
+            });
+        });
+    }
+
+    /**
+     * Queue a video file for upload
+     */
+    private void enqueueVideo(File videoFile) {
+        uploadQueue.enqueue(videoFile, "video", VIDEO_FOLDER, UploadQueue.PRIORITY_VIDEO,
+                videoUploadCallback(videoFile.equals(savedMediaFile) ? null : videoFile));
+    }
+
+    /**
+     * Queue a video uri for upload without copying it
+     */
+    private void enqueueVideo(Uri videoUri, long size) {
+        uploadQueue.enqueue(videoUri, size, "video", VIDEO_FOLDER, UploadQueue.PRIORITY_VIDEO,
+                videoUploadCallback(null));
+    }
+
+    /**
+     * Callback for a video upload
+     *
+     * @param tempFile Transcoded copy to delete once uploaded, may be null
+     */
+    private CloudinaryManager.CloudinaryCallback<Map<String, Object>> videoUploadCallback(File tempFile) {
+        return new CloudinaryManager.CloudinaryCallback<Map<String, Object>>() {
+            @Override
+            public void onSuccess(Map<String, Object> result) {
+                String publicId = (String) result.get("public_id");
+                String url = (String) result.get("url");
+                Log.d(TAG, "Public Id: " + publicId);
+                Log.d(TAG, "URL: " + url);
+                Log.d(TAG, "Disk bytes saved by streaming uploads: " + cloudinaryManager.getStreamedBytes());
+
+                // The transcoded copy is only needed for the upload
+                deleteUploadCopy(tempFile);
+
+                runOnUiThread(() -> {
+                    progressBar.setVisibility(View.GONE);
+                    btnUpload.setEnabled(true);
+                    tvStatus.setText("Upload successful!\nVideo URL: " + url);
+                    Toast.makeText(MainActivity.this, "Video uploaded successfully", Toast.LENGTH_SHORT).show();
+                });
+            }
+
+            @Override
+            public void onError(String errorMsg) {
+                // The queue does not retry a failed item, the copy would stay in the cache dir
+                deleteUploadCopy(tempFile);
+                runOnUiThread(() -> {
+                    progressBar.setVisibility(View.GONE);
+                    btnUpload.setEnabled(true);
+                    tvStatus.setText("Upload failed: " + errorMsg);
+                    Toast.makeText(MainActivity.this, "Upload failed: " + errorMsg, Toast.LENGTH_SHORT).show();
+                    Log.e(TAG, "Upload failed: " + errorMsg);
                 });
+            }
+
+            @Override
+            public void onProgress(int progress) {
+                runOnUiThread(() -> {
+                    progressBar.setProgress(progress);
+                    tvStatus.setText("Uploading video: " + progress + "%");
+                });
+            }
+        };
+    }
+
+    /**
+     * Delete a file if it is a transcoded or thumbnail copy made for an upload, never an original
+     */
+    private void deleteUploadCopy(File file) {
+        if (file == null) {
+            return;
+        }
+        File parent = file.getParentFile();
+        boolean isCopy = new File(getCacheDir(), TRANSCODED_FOLDER).equals(parent)
+                || new File(getFilesDir(), THUMBNAIL_UPLOAD_FOLDER).equals(parent);
+        if (isCopy && file.exists() && !file.delete()) {
+            Log.e(TAG, "Failed to delete upload copy: " + file);
+        }
     }
 
     /**
      * Upload video thumbnail to Cloudinary
      */
-    private void uploadVideoThumbnail(File thumbnailFile, String videoPublicId, String videoUrl) {
+    private void uploadVideoThumbnail(File thumbnailFile) {
         String folder = "/users/test/thumbnails/";
-        cloudinaryManager.uploadImage(
-                Uri.fromFile(thumbnailFile).toString(),
-                "/users/test/thumbnails/",
+        File directory = new File(getFilesDir(), THUMBNAIL_UPLOAD_FOLDER);
+        // The queue keeps the path across restarts, upload a copy the thumbnail cache can't delete
+        MediaScheduler.runIo(MediaScheduler.PRIORITY_HIGH, () -> {
+            File copy = new File(directory, thumbnailFile.getName());
+            try {
+                if (!directory.exists() && !directory.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + directory);
+                }
+                Files.copy(thumbnailFile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Log.e(TAG, "Thumbnail upload skipped, copy failed: " + e.getMessage());
+                return;
+            }
+            enqueueThumbnail(copy, folder);
+        });
+    }
+
+    /**
+     * Queue a thumbnail copy for upload, deleted once the upload finishes
+     */
+    private void enqueueThumbnail(File copy, String folder) {
+        uploadQueue.enqueue(
+                copy,
+                "image",
+                folder,
+                UploadQueue.PRIORITY_THUMBNAIL,
                 new CloudinaryManager.CloudinaryCallback<Map<String, Object>>() {
                     @Override
                     public void onSuccess(Map<String, Object> result) {
-                        runOnUiThread(() -> {
-                            progressBar.setVisibility(View.GONE);
-                            btnUpload.setEnabled(true);
-
-                            // Get thumbnail public ID and URL
-                            String thumbnailPublicId = (String) result.get("public_id");
-                            String thumbnailUrl = (String) result.get("url");
+                        // Get thumbnail public ID and URL
+                        String thumbnailPublicId = (String) result.get("public_id");
+                        String thumbnailUrl = (String) result.get("url");
 
-                            Log.d(TAG, "Thumbnail Public Id: " + thumbnailPublicId);
-                            Log.d(TAG, "Thumbnail URL: " + thumbnailUrl);
-
-                            tvStatus.setText("Upload successful!\nVideo URL: " + videoUrl +
-                                    "\nThumbnail URL: " + thumbnailUrl);
-                            Toast.makeText(MainActivity.this, "Video and thumbnail uploaded", Toast.LENGTH_SHORT).show();
-                        });
+                        Log.d(TAG, "Thumbnail Public Id: " + thumbnailPublicId);
+                        Log.d(TAG, "Thumbnail URL: " + thumbnailUrl);
+                        deleteUploadCopy(copy);
                     }
 
                     @Override
                     public void onError(String errorMsg) {
-                        // Thumbnail upload failed, but video upload succeeded
+                        deleteUploadCopy(copy);
+                        // Thumbnail upload failed, the video upload continues
                         runOnUiThread(() -> {
-                            progressBar.setVisibility(View.GONE);
-                            btnUpload.setEnabled(true);
-                            tvStatus.setText("Video uploaded, but thumbnail failed: " + errorMsg +
-                                    "\nVideo URL: " + videoUrl);
-                            Toast.makeText(MainActivity.this, "Video uploaded, thumbnail failed", Toast.LENGTH_SHORT).show();
-                            Log.e(TAG, "Upload failed: " + errorMsg);
+                            Toast.makeText(MainActivity.this, "Thumbnail upload failed", Toast.LENGTH_SHORT).show();
+                            Log.e(TAG, "Thumbnail upload failed: " + errorMsg);
                         });
                     }
 
                     @Override
                     public void onProgress(int progress) {
-                        runOnUiThread(() -> {
-                            progressBar.setProgress(progress);
-                            tvStatus.setText("Uploading thumbnail: " + progress + "%");
-                        });
+                        Log.d(TAG, "Uploading thumbnail: " + progress + "%");
                     }
                 });
     }
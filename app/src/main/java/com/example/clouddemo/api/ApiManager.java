@@ -1,9 +1,9 @@
 package com.example.clouddemo.api;
 
 import com.example.clouddemo.model.ResponseData;
+import com.example.clouddemo.model.SignatureData;
 import com.example.clouddemo.utils.Utils;
 
-import java.util.List;
 import java.util.Map;
 
 import retrofit2.Call;
@@ -18,10 +18,10 @@ public class ApiManager {
         apiService = RetrofitClient.getInstance().getService();
     }
 
-    public void getSignatur(String token, Map<String, Object> config, Callback<ResponseData<Object>> callback) {
+    public void getSignatur(String token, Map<String, Object> config, Callback<ResponseData<SignatureData>> callback) {
         String tokenWithPrefix = Utils.formatToken(token);
         String configUrl = Utils.getConfigUrl(config);
-        Call<ResponseData<Object>> call = apiService.getSignatur(tokenWithPrefix, configUrl);
+        Call<ResponseData<SignatureData>> call = apiService.getSignatur(tokenWithPrefix, configUrl);
         call.enqueue(callback);
     }
 }
\ No newline at end of file
@@ -1,8 +1,9 @@
 package com.example.clouddemo.api;
 
 import com.example.clouddemo.model.ResponseData;
+import com.example.clouddemo.model.SignatureData;
 
-import java.util.Map;
+import java.util.List;
 
 import retrofit2.Call;
 import retrofit2.http.Body;
@@ -12,5 +13,9 @@ import retrofit2.http.POST;
 public interface CloudinaryService {
     // ============ Cloudinary Management ============
     @POST("/api/v1/getSignature")
-    Call<ResponseData<Object>> getSignatur(@Header("Authorization") String token, @Body String configURL);
+    Call<ResponseData<SignatureData>> getSignatur(@Header("Authorization") String token, @Body String configURL);
+
+    // Sign several config urls in one request, results are returned in the same order
+    @POST("/api/v1/getSignatures")
+    Call<ResponseData<List<SignatureData>>> getSignatures(@Header("Authorization") String token, @Body List<String> configURLs);
 }
@@ -0,0 +1,181 @@
+package com.example.clouddemo.api;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * EventListener that records call latency, body bytes and DNS/connect/TLS timings
+ * into {@link NetworkMetrics}. Only a sampled fraction of calls get a listener,
+ * the rest use {@link EventListener#NONE} and cost nothing.
+ * Byte counts come from OkHttp's own counters, bodies are never buffered.
+ */
+public class MetricsEventListener extends EventListener {
+    // Numbers, versions (v1712345678), UUIDs and long hex hashes
+    private static final Pattern ID_SEGMENT = Pattern.compile("\\d+|v\\d{6,}|[0-9a-fA-F-]{16,}");
+    private static final Set<String> RESOURCE_TYPES = new HashSet<>(Arrays.asList("image", "video", "raw"));
+    private static final Set<String> DELIVERY_TYPES = new HashSet<>(
+            Arrays.asList("upload", "fetch", "private", "authenticated"));
+
+    private final NetworkMetrics metrics;
+    private final String endpoint;
+
+    private long callStartNs;
+    private long dnsStartNs;
+    private long connectStartNs;
+    private long secureConnectStartNs;
+    private long bytesOut;
+    private long bytesIn;
+    private boolean failed;
+
+    /**
+     * Factory creating a listener for a sampled fraction of calls
+     */
+    public static class Factory implements EventListener.Factory {
+        private final NetworkMetrics metrics;
+        private volatile double sampleRate;
+
+        /**
+         * @param metrics    Metrics to record into
+         * @param sampleRate Fraction of calls to instrument, between 0 and 1
+         */
+        public Factory(@NonNull NetworkMetrics metrics, double sampleRate) {
+            this.metrics = metrics;
+            this.sampleRate = sampleRate;
+        }
+
+        public void setSampleRate(double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        @NonNull
+        @Override
+        public EventListener create(@NonNull Call call) {
+            double rate = sampleRate;
+            if (rate <= 0 || (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate)) {
+                return EventListener.NONE;
+            }
+            return new MetricsEventListener(metrics, endpointOf(call.request()));
+        }
+    }
+
+    MetricsEventListener(NetworkMetrics metrics, String endpoint) {
+        this.metrics = metrics;
+        this.endpoint = endpoint;
+    }
+
+    static String endpointOf(Request request) {
+        return request.method() + " " + request.url().host() + normalizePath(request.url().pathSegments());
+    }
+
+    /**
+     * Path with ids replaced by {id}, file names by {file} and everything after a
+     * Cloudinary delivery type (transformations, version, public id) by *,
+     * so one endpoint gets one set of metrics
+     */
+    static String normalizePath(List<String> segments) {
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < segments.size(); i++) {
+            String segment = segments.get(i);
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (ID_SEGMENT.matcher(segment).matches()) {
+                path.append("/{id}");
+            } else if (segment.indexOf('.') > 0) {
+                path.append("/{file}");
+            } else {
+                path.append('/').append(segment);
+            }
+            if (i > 0 && i < segments.size() - 1 && DELIVERY_TYPES.contains(segment)
+                    && RESOURCE_TYPES.contains(segments.get(i - 1))) {
+                path.append("/*");
+                break;
+            }
+        }
+        return path.length() > 0 ? path.toString() : "/";
+    }
+
+    private static long elapsedMs(long startNs) {
+        return (System.nanoTime() - startNs) / 1_000_000;
+    }
+
+    @Override
+    public void callStart(@NonNull Call call) {
+        callStartNs = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(@NonNull Call call, @NonNull String domainName) {
+        dnsStartNs = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(@NonNull Call call, @NonNull String domainName, @NonNull List<InetAddress> inetAddressList) {
+        metrics.recordPhase(NetworkMetrics.PHASE_DNS, elapsedMs(dnsStartNs));
+    }
+
+    @Override
+    public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy) {
+        connectStartNs = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart(@NonNull Call call) {
+        secureConnectStartNs = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(@NonNull Call call, Handshake handshake) {
+        metrics.recordPhase(NetworkMetrics.PHASE_TLS, elapsedMs(secureConnectStartNs));
+    }
+
+    @Override
+    public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                           @NonNull Proxy proxy, Protocol protocol) {
+        metrics.recordPhase(NetworkMetrics.PHASE_CONNECT, elapsedMs(connectStartNs));
+    }
+
+    @Override
+    public void requestBodyEnd(@NonNull Call call, long byteCount) {
+        bytesOut += byteCount;
+    }
+
+    @Override
+    public void responseHeadersEnd(@NonNull Call call, @NonNull Response response) {
+        if (!response.isSuccessful() && response.code() != 304) {
+            failed = true;
+        }
+    }
+
+    @Override
+    public void responseBodyEnd(@NonNull Call call, long byteCount) {
+        bytesIn += byteCount;
+    }
+
+    @Override
+    public void callEnd(@NonNull Call call) {
+        metrics.recordCall(endpoint, elapsedMs(callStartNs), bytesOut, bytesIn, failed);
+    }
+
+    @Override
+    public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+        metrics.recordCall(endpoint, elapsedMs(callStartNs), bytesOut, bytesIn, true);
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.clouddemo.api;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * NetworkMetrics aggregates per-endpoint request statistics recorded by
+ * {@link MetricsEventListener}. All recording methods are lock-free.
+ */
+public class NetworkMetrics {
+    // Upper bounds (ms) of the latency histogram buckets, the last bucket is unbounded
+    public static final long[] LATENCY_BUCKETS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    // Limit the number of distinct endpoints so asset urls can't grow the map without bound
+    private static final int MAX_ENDPOINTS = 100;
+    private static final String OTHER_ENDPOINT = "other";
+
+    public static final String PHASE_DNS = "dns";
+    public static final String PHASE_CONNECT = "connect";
+    public static final String PHASE_TLS = "tls";
+
+    private final Map<String, Stats> endpoints = new ConcurrentHashMap<>();
+    private final Map<String, Stats> phases = new ConcurrentHashMap<>();
+
+    /**
+     * Mutable counters for one endpoint or connection phase
+     */
+    static class Stats {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong totalMs = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(LATENCY_BUCKETS_MS.length + 1);
+
+        void record(long durationMs) {
+            count.incrementAndGet();
+            totalMs.addAndGet(durationMs);
+            histogram.incrementAndGet(bucketOf(durationMs));
+        }
+
+        StatsSnapshot snapshot() {
+            long[] buckets = new long[histogram.length()];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = histogram.get(i);
+            }
+            return new StatsSnapshot(count.get(), failures.get(), totalMs.get(),
+                    bytesOut.get(), bytesIn.get(), buckets);
+        }
+    }
+
+    /**
+     * Immutable view of one endpoint's or phase's counters
+     */
+    public static class StatsSnapshot {
+        public final long count;
+        public final long failures;
+        public final long totalMs;
+        public final long bytesOut;
+        public final long bytesIn;
+        public final long[] histogram;
+
+        StatsSnapshot(long count, long failures, long totalMs, long bytesOut, long bytesIn, long[] histogram) {
+            this.count = count;
+            this.failures = failures;
+            this.totalMs = totalMs;
+            this.bytesOut = bytesOut;
+            this.bytesIn = bytesIn;
+            this.histogram = histogram;
+        }
+
+        public long getAverageMs() {
+            return count == 0 ? 0 : totalMs / count;
+        }
+
+        /**
+         * Approximate percentile, returned as the upper bound of the matching bucket
+         *
+         * @param percentile Value between 0 and 100
+         * @return Latency in ms, or Long.MAX_VALUE if it falls in the unbounded bucket
+         */
+        public long getPercentileMs(double percentile) {
+            long total = 0;
+            for (long bucket : histogram) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long threshold = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= threshold) {
+                    return i < LATENCY_BUCKETS_MS.length ? LATENCY_BUCKETS_MS[i] : Long.MAX_VALUE;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "count=" + count + ", failures=" + failures + ", avg=" + getAverageMs() + "ms"
+                    + ", p50=" + getPercentileMs(50) + "ms, p95=" + getPercentileMs(95) + "ms"
+                    + ", out=" + bytesOut + "B, in=" + bytesIn + "B";
+        }
+    }
+
+    /**
+     * Immutable view of all metrics at one point in time
+     */
+    public static class Snapshot {
+        public final Map<String, StatsSnapshot> endpoints;
+        public final Map<String, StatsSnapshot> phases;
+
+        Snapshot(Map<String, StatsSnapshot> endpoints, Map<String, StatsSnapshot> phases) {
+            this.endpoints = Collections.unmodifiableMap(endpoints);
+            this.phases = Collections.unmodifiableMap(phases);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "endpoints=" + endpoints + ", phases=" + phases;
+        }
+    }
+
+    void recordCall(String endpoint, long durationMs, long bytesOut, long bytesIn, boolean failed) {
+        Stats stats = endpointStats(endpoint);
+        stats.record(durationMs);
+        stats.bytesOut.addAndGet(bytesOut);
+        stats.bytesIn.addAndGet(bytesIn);
+        if (failed) {
+            stats.failures.incrementAndGet();
+        }
+    }
+
+    void recordPhase(String phase, long durationMs) {
+        Stats stats = phases.get(phase);
+        if (stats == null) {
+            phases.putIfAbsent(phase, new Stats());
+            stats = phases.get(phase);
+        }
+        stats.record(durationMs);
+    }
+
+    private Stats endpointStats(String endpoint) {
+        Stats stats = endpoints.get(endpoint);
+        if (stats != null) {
+            return stats;
+        }
+        String key = endpoints.size() < MAX_ENDPOINTS ? endpoint : OTHER_ENDPOINT;
+        endpoints.putIfAbsent(key, new Stats());
+        return endpoints.get(key);
+    }
+
+    /**
+     * Take a snapshot of the current metrics
+     */
+    @NonNull
+    public Snapshot snapshot() {
+        Map<String, StatsSnapshot> endpointSnapshots = new HashMap<>();
+        for (Map.Entry<String, Stats> entry : endpoints.entrySet()) {
+            endpointSnapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        Map<String, StatsSnapshot> phaseSnapshots = new HashMap<>();
+        for (Map.Entry<String, Stats> entry : phases.entrySet()) {
+            phaseSnapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(endpointSnapshots, phaseSnapshots);
+    }
+
+    /**
+     * Reset all counters
+     */
+    public void reset() {
+        endpoints.clear();
+        phases.clear();
+    }
+
+    private static int bucketOf(long durationMs) {
+        for (int i = 0; i < LATENCY_BUCKETS_MS.length; i++) {
+            if (durationMs <= LATENCY_BUCKETS_MS[i]) {
+                return i;
+            }
+        }
+        return LATENCY_BUCKETS_MS.length;
+    }
+}
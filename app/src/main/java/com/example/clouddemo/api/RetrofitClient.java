@@ -1,36 +1,74 @@
 package com.example.clouddemo.api;
 
+import com.example.clouddemo.BuildConfig;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
 import retrofit2.adapter.rxjava3.RxJava3CallAdapterFactory;
 import retrofit2.converter.gson.GsonConverterFactory;
 
 public class RetrofitClient {
+    // Fraction of calls instrumented in release builds
+    private static final double DEFAULT_METRICS_SAMPLE_RATE = 0.1;
+    // Media fetches in flight, per host they share one HTTP/2 connection
+    private static final int MEDIA_MAX_REQUESTS = 64;
+    private static final int MEDIA_MAX_REQUESTS_PER_HOST = 16;
+
     private static RetrofitClient instance;
     private Retrofit retrofit;
+    private final Gson gson;
+    private final OkHttpClient httpClient;
+    private final OkHttpClient mediaClient;
+    private final NetworkMetrics networkMetrics;
+    private final MetricsEventListener.Factory metricsListenerFactory;
     private CloudinaryService cloudinaryService;
 
     private RetrofitClient() {
-        // Setup logging interceptor
-        HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor();
-        loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
+        // Setup sampled metrics, recorded through an EventListener so bodies are never buffered
+        networkMetrics = new NetworkMetrics();
+        metricsListenerFactory = new MetricsEventListener.Factory(networkMetrics,
+                BuildConfig.DEBUG ? 1.0 : DEFAULT_METRICS_SAMPLE_RATE);
 
-        // Setup OkHttpClient
-        OkHttpClient client = new OkHttpClient.Builder()
+        // Setup OkHttpClient, shared with uploads and downloads outside the api
+        httpClient = new OkHttpClient.Builder()
                 .connectTimeout(60, TimeUnit.SECONDS)
                 .readTimeout(60, TimeUnit.SECONDS)
                 .writeTimeout(60, TimeUnit.SECONDS)
-                .addInterceptor(loggingInterceptor)
+                .eventListenerFactory(metricsListenerFactory)
+                .build();
+
+        // Media client for CDN fetches: same connection pool, its own dispatcher limits,
+        // HTTP/2 so concurrent fetches to res.cloudinary.com are multiplexed on one connection
+        Dispatcher mediaDispatcher = new Dispatcher();
+        mediaDispatcher.setMaxRequests(MEDIA_MAX_REQUESTS);
+        mediaDispatcher.setMaxRequestsPerHost(MEDIA_MAX_REQUESTS_PER_HOST);
+        mediaClient = httpClient.newBuilder()
+                .dispatcher(mediaDispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .readTimeout(30, TimeUnit.SECONDS)
                 .build();
 
+        // Api client shares the connection pool and dispatcher of the base client
+        OkHttpClient.Builder clientBuilder = httpClient.newBuilder();
+
+        // Body logging buffers every payload, only use it in debug builds
+        if (BuildConfig.DEBUG) {
+            HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor();
+            loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
+            clientBuilder.addInterceptor(loggingInterceptor);
+        }
+        OkHttpClient client = clientBuilder.build();
+
         // Configure Gson
-        Gson gson = new GsonBuilder()
+        gson = new GsonBuilder()
                 .setLenient()
                 .create();
 
@@ -55,4 +93,42 @@ public class RetrofitClient {
     public CloudinaryService getService() {
         return cloudinaryService;
     }
+
+    /**
+     * Base http client without api logging, for large uploads and downloads
+     */
+    public OkHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Http client for media fetches from the CDN, sharing the connection pool of the base client.
+     * Use {@code enqueue} so the per-host limits of its dispatcher apply.
+     */
+    public OkHttpClient getMediaClient() {
+        return mediaClient;
+    }
+
+    /**
+     * Shared Gson instance, also used by the Retrofit converter
+     */
+    public Gson getGson() {
+        return gson;
+    }
+
+    /**
+     * Snapshot of the sampled network metrics (latency, bytes, DNS/connect/TLS timings)
+     */
+    public NetworkMetrics.Snapshot getMetricsSnapshot() {
+        return networkMetrics.snapshot();
+    }
+
+    /**
+     * Change the fraction of calls that are instrumented
+     *
+     * @param sampleRate Value between 0 (off) and 1 (every call)
+     */
+    public void setMetricsSampleRate(double sampleRate) {
+        metricsListenerFactory.setSampleRate(sampleRate);
+    }
 }
@@ -0,0 +1,98 @@
+package com.example.clouddemo.model;
+
+import com.cloudinary.android.signed.Signature;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Data returned by the signature endpoints.
+ * Decoded straight from the response stream by {@link Adapter}.
+ */
+@JsonAdapter(SignatureData.Adapter.class)
+public class SignatureData {
+    private String apiKey;
+    private String cloudName;
+    private String signature;
+    private long timestamp;
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getCloudName() {
+        return cloudName;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Signature toSignature() {
+        return new Signature(signature, apiKey, timestamp);
+    }
+
+    /**
+     * Streaming adapter, reads the four known fields and skips anything else
+     */
+    public static class Adapter extends TypeAdapter<SignatureData> {
+        @Override
+        public void write(JsonWriter out, SignatureData value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("api_key").value(value.apiKey);
+            out.name("cloud_name").value(value.cloudName);
+            out.name("signature").value(value.signature);
+            out.name("timestamp").value(value.timestamp);
+            out.endObject();
+        }
+
+        @Override
+        public SignatureData read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            SignatureData data = new SignatureData();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "api_key":
+                        data.apiKey = in.nextString();
+                        break;
+                    case "cloud_name":
+                        data.cloudName = in.nextString();
+                        break;
+                    case "signature":
+                        data.signature = in.nextString();
+                        break;
+                    case "timestamp":
+                        // nextLong also accepts numbers sent as strings
+                        data.timestamp = in.nextLong();
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return data;
+        }
+    }
+}
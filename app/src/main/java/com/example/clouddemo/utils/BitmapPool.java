@@ -0,0 +1,197 @@
+package com.example.clouddemo.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * BitmapPool keeps bitmaps that are no longer needed so later decodes and scales can
+ * draw into them instead of allocating. Bitmaps are grouped in power of two size classes
+ * of their allocation, a request looks in its own class and the next one so a small
+ * request never pins a much larger bitmap. The pool is bounded in bytes by the memory
+ * class and drops the oldest bitmaps first.
+ */
+public class BitmapPool {
+    private static final String TAG = "BitmapPool";
+    // Size classes are floor(log2(allocation bytes))
+    private static final int SIZE_CLASSES = 32;
+
+    private static BitmapPool instance;
+
+    private final long maxBytes;
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Bitmap>[] classes = new ArrayDeque[SIZE_CLASSES];
+    // All pooled bitmaps, oldest first
+    private final LinkedHashSet<Bitmap> pooled = new LinkedHashSet<>();
+    private long retainedBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    private BitmapPool(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        // A sixteenth of the app heap for bitmaps waiting to be reused
+        maxBytes = activityManager.getMemoryClass() * 1024L * 1024L / 16;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            classes[i] = new ArrayDeque<>();
+        }
+    }
+
+    public static synchronized BitmapPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new BitmapPool(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Take a bitmap to pass as BitmapFactory.Options.inBitmap
+     *
+     * @param byteCount Bytes the decoded bitmap needs
+     * @return A mutable bitmap with at least that allocation, or null to let the decoder allocate
+     */
+    @Nullable
+    public synchronized Bitmap getReusable(int byteCount) {
+        Bitmap bitmap = take(byteCount);
+        if (bitmap != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Get a cleared bitmap to draw into, reused from the pool when one is large enough
+     *
+     * @param width  Width in pixels
+     * @param height Height in pixels
+     * @param config Pixel format
+     * @return A mutable, transparent bitmap of exactly that size
+     */
+    @NonNull
+    public Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        Bitmap bitmap;
+        synchronized (this) {
+            bitmap = take(width * height * bytesPerPixel(config));
+            if (bitmap != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.reconfigure(width, height, config);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap back for reuse, the caller must not touch it anymore.
+     * Bitmaps that can't be reused or don't fit are recycled.
+     *
+     * @param bitmap Bitmap to release, may be null
+     */
+    public synchronized void put(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || pooled.contains(bitmap)) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || size > maxBytes / 2) {
+            bitmap.recycle();
+            return;
+        }
+
+        pooled.add(bitmap);
+        classes[sizeClass(size)].addLast(bitmap);
+        retainedBytes += size;
+        trimToSize();
+    }
+
+    /**
+     * Recycle all pooled bitmaps, e.g. on low memory
+     */
+    public synchronized void clear() {
+        for (Bitmap bitmap : pooled) {
+            bitmap.recycle();
+        }
+        pooled.clear();
+        for (ArrayDeque<Bitmap> sizeClass : classes) {
+            sizeClass.clear();
+        }
+        retainedBytes = 0;
+    }
+
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{" + pooled.size() + " bitmaps, " + retainedBytes + "/" + maxBytes
+                + " bytes, hit rate " + Math.round(getHitRate() * 100) + "%}";
+    }
+
+    private Bitmap take(int byteCount) {
+        int first = sizeClass(Math.max(1, byteCount));
+        for (int i = first; i <= first + 1 && i < SIZE_CLASSES; i++) {
+            for (Iterator<Bitmap> it = classes[i].iterator(); it.hasNext(); ) {
+                Bitmap bitmap = it.next();
+                if (bitmap.getAllocationByteCount() >= byteCount) {
+                    it.remove();
+                    pooled.remove(bitmap);
+                    retainedBytes -= bitmap.getAllocationByteCount();
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void trimToSize() {
+        Iterator<Bitmap> it = pooled.iterator();
+        while (retainedBytes > maxBytes && it.hasNext()) {
+            Bitmap oldest = it.next();
+            it.remove();
+            int size = oldest.getAllocationByteCount();
+            classes[sizeClass(size)].remove(oldest);
+            retainedBytes -= size;
+            oldest.recycle();
+            Log.d(TAG, "Evicted " + size + " bytes, " + this);
+        }
+    }
+
+    private static int sizeClass(int byteCount) {
+        return 31 - Integer.numberOfLeadingZeros(byteCount);
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+                return 2;
+            case RGBA_F16:
+                return 8;
+            default:
+                return 4;
+        }
+    }
+}
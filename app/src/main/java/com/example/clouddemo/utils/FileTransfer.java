@@ -0,0 +1,144 @@
+package com.example.clouddemo.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FileTransfer copies large media between file channels with as few syscalls as possible.
+ * Regular files are copied with FileChannel.transferTo, which lets the kernel move the
+ * bytes without going through a Java buffer; pipes and sockets, e.g. from streaming
+ * content providers, are copied through a large direct buffer. The optional digest is
+ * computed in the same pass for buffered copies, and from a mapping of the written file
+ * otherwise. Throughput of every copy is recorded.
+ */
+public class FileTransfer {
+    private static final String TAG = "FileTransfer";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // transferTo moves at most this much per call on some kernels
+    private static final long TRANSFER_CHUNK = 64L * 1024 * 1024;
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private static final AtomicLong zeroCopyCount = new AtomicLong();
+    private static final AtomicLong bufferedCount = new AtomicLong();
+    private static final AtomicLong totalBytes = new AtomicLong();
+    private static final AtomicLong totalNs = new AtomicLong();
+
+    /**
+     * Counters of all copies so far
+     */
+    public static class Stats {
+        public final long zeroCopies;
+        public final long bufferedCopies;
+        public final long bytes;
+        public final double megabytesPerSecond;
+
+        Stats(long zeroCopies, long bufferedCopies, long bytes, long ns) {
+            this.zeroCopies = zeroCopies;
+            this.bufferedCopies = bufferedCopies;
+            this.bytes = bytes;
+            this.megabytesPerSecond = ns == 0 ? 0 : bytes / 1048576.0 / (ns / 1e9);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "zeroCopy=" + zeroCopies + ", buffered=" + bufferedCopies + ", bytes=" + bytes
+                    + ", " + String.format(Locale.US, "%.1f", megabytesPerSecond) + " MB/s";
+        }
+    }
+
+    private FileTransfer() {
+    }
+
+    /**
+     * Copy everything from the source channel to the destination channel
+     *
+     * @param source      Source channel, read from its current position
+     * @param sourceSize  Size of the source, or a negative value if it is a pipe or socket
+     * @param destination Destination channel opened for read and write if a digest is requested
+     * @param digest      Digest to update with the copied bytes, may be null
+     * @return Number of bytes copied
+     */
+    public static long copy(@NonNull FileChannel source, long sourceSize, @NonNull FileChannel destination,
+                            @Nullable MessageDigest digest) throws IOException {
+        long startNs = System.nanoTime();
+        long copied;
+        boolean zeroCopy = sourceSize >= 0;
+        if (zeroCopy) {
+            copied = transfer(source, sourceSize, destination);
+            if (digest != null) {
+                digestFile(destination, copied, digest);
+            }
+            zeroCopyCount.incrementAndGet();
+        } else {
+            copied = copyBuffered(source, destination, digest);
+            bufferedCount.incrementAndGet();
+        }
+
+        long elapsedNs = System.nanoTime() - startNs;
+        totalBytes.addAndGet(copied);
+        totalNs.addAndGet(elapsedNs);
+        Log.d(TAG, "Copied " + copied + " bytes " + (zeroCopy ? "with transferTo" : "buffered") + " in "
+                + elapsedNs / 1_000_000 + "ms, " + getStats());
+        return copied;
+    }
+
+    @NonNull
+    public static Stats getStats() {
+        return new Stats(zeroCopyCount.get(), bufferedCount.get(), totalBytes.get(), totalNs.get());
+    }
+
+    private static long transfer(FileChannel source, long size, FileChannel destination) throws IOException {
+        long position = source.position();
+        long copied = 0;
+        while (position + copied < size) {
+            long count = source.transferTo(position + copied,
+                    Math.min(TRANSFER_CHUNK, size - position - copied), destination);
+            if (count <= 0) {
+                // The file shrank while copying
+                break;
+            }
+            copied += count;
+        }
+        source.position(position + copied);
+        return copied;
+    }
+
+    private static long copyBuffered(FileChannel source, FileChannel destination,
+                                     @Nullable MessageDigest digest) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long copied = 0;
+        while (source.read(buffer) != -1) {
+            buffer.flip();
+            if (digest != null) {
+                digest.update(buffer.duplicate());
+            }
+            while (buffer.hasRemaining()) {
+                copied += destination.write(buffer);
+            }
+            buffer.clear();
+        }
+        return copied;
+    }
+
+    /**
+     * Hash the bytes just written, they are still in the page cache
+     */
+    private static void digestFile(FileChannel channel, long size, MessageDigest digest) throws IOException {
+        for (long offset = 0; offset < size; offset += MAP_WINDOW) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                    Math.min(MAP_WINDOW, size - offset));
+            digest.update(window);
+        }
+    }
+}
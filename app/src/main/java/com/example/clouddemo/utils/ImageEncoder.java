@@ -0,0 +1,396 @@
+package com.example.clouddemo.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * ImageEncoder writes bitmaps in a configurable format and quality.
+ * With a byte budget or an SSIM floor it binary searches the quality instead of using
+ * a fixed one: the highest quality that fits the budget, lowered to the smallest output
+ * that still keeps the floor. Instances are immutable and can be shared between threads.
+ * AVIF is not offered, the platform has no AVIF encoder in Bitmap.compress.
+ */
+public final class ImageEncoder {
+    private static final String TAG = "ImageEncoder";
+    static final int MIN_QUALITY = 40;
+    // Each step is one encode, plus one decode when the SSIM floor is set
+    static final int MAX_SEARCH_STEPS = 6;
+    // SSIM is computed on a downscaled luma plane of at most this many pixels per side
+    private static final int SSIM_SIZE = 256;
+    static final int SSIM_WINDOW = 8;
+    // compareFormats encodes each point this many times untimed, then times this many runs
+    private static final int BENCHMARK_WARMUP_RUNS = 3;
+    private static final int BENCHMARK_RUNS = 7;
+    private static final int[] BENCHMARK_QUALITIES = {50, 60, 70, 80, 90};
+
+    /**
+     * Output formats supported by Bitmap.compress
+     */
+    public enum Format {
+        JPEG(Bitmap.CompressFormat.JPEG, ".jpg"),
+        WEBP(Bitmap.CompressFormat.WEBP_LOSSY, ".webp");
+
+        final Bitmap.CompressFormat compressFormat;
+        public final String extension;
+
+        Format(Bitmap.CompressFormat compressFormat, String extension) {
+            this.compressFormat = compressFormat;
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Outcome of one encode
+     */
+    public static class Result {
+        public final Format format;
+        public final int quality;
+        public final long bytes;
+        // -1 when not measured
+        public final double ssim;
+        public final int attempts;
+        public final long elapsedMs;
+
+        Result(Format format, int quality, long bytes, double ssim, int attempts, long elapsedMs) {
+            this.format = format;
+            this.quality = quality;
+            this.bytes = bytes;
+            this.ssim = ssim;
+            this.attempts = attempts;
+            this.elapsedMs = elapsedMs;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return format + " q" + quality + ", " + bytes + " bytes"
+                    + (ssim >= 0 ? String.format(Locale.US, ", ssim %.4f", ssim) : "")
+                    + ", " + attempts + " encodes in " + elapsedMs + "ms";
+        }
+    }
+
+    private final Format format;
+    private final int quality;
+    private final long maxBytes;
+    private final double minSsim;
+
+    /**
+     * @param format  Output format
+     * @param quality Quality 0-100, also the highest quality the search tries
+     */
+    public ImageEncoder(@NonNull Format format, int quality) {
+        this(format, quality, 0, 0);
+    }
+
+    private ImageEncoder(Format format, int quality, long maxBytes, double minSsim) {
+        this.format = format;
+        this.quality = Math.max(0, Math.min(100, quality));
+        this.maxBytes = maxBytes;
+        this.minSsim = minSsim;
+    }
+
+    /**
+     * Copy of this encoder that lowers the quality until the output fits
+     *
+     * @param maxBytes Byte budget, 0 for none
+     */
+    @NonNull
+    public ImageEncoder withByteBudget(long maxBytes) {
+        return new ImageEncoder(format, quality, Math.max(0, maxBytes), minSsim);
+    }
+
+    /**
+     * Copy of this encoder that lowers the quality as long as the output stays this similar to the source
+     *
+     * @param minSsim SSIM floor between 0 and 1, e.g. 0.95, 0 for none
+     */
+    @NonNull
+    public ImageEncoder withMinSsim(double minSsim) {
+        return new ImageEncoder(format, quality, maxBytes, Math.max(0, Math.min(1, minSsim)));
+    }
+
+    @NonNull
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Short description of the settings, equal for encoders that produce the same output
+     */
+    @NonNull
+    public String getConfigKey() {
+        return format + "-q" + quality + (maxBytes > 0 ? "-b" + maxBytes : "")
+                + (minSsim > 0 ? "-s" + minSsim : "");
+    }
+
+    /**
+     * Encode a bitmap to a file
+     *
+     * @param bitmap Bitmap to encode, not recycled
+     * @param output Destination file
+     * @return What was written
+     */
+    @NonNull
+    public Result encode(@NonNull Bitmap bitmap, @NonNull File output) throws IOException {
+        Result result;
+        if (maxBytes <= 0 && minSsim <= 0) {
+            long startNs = System.nanoTime();
+            try (OutputStream out = new FileOutputStream(output)) {
+                compress(bitmap, quality, out);
+            }
+            result = new Result(format, quality, output.length(), -1, 1,
+                    (System.nanoTime() - startNs) / 1_000_000);
+        } else {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            result = search(bitmap, encoded);
+            try (OutputStream out = new FileOutputStream(output)) {
+                encoded.writeTo(out);
+            }
+        }
+        Log.d(TAG, "Encoded " + bitmap.getWidth() + "x" + bitmap.getHeight() + ": " + result);
+        return result;
+    }
+
+    /**
+     * Benchmark every format across a sweep of qualities. Each point is encoded a few times
+     * untimed to warm up the codec, then timed over several runs; the median is reported
+     * next to the size and the SSIM of that encoding, so size can be read against time.
+     *
+     * @param bitmap    Bitmap to encode, not recycled
+     * @param qualities Qualities to sweep, the defaults when empty
+     * @return One result per format and quality, elapsedMs is the median run
+     */
+    @NonNull
+    public static List<Result> compareFormats(@NonNull Bitmap bitmap, int... qualities) throws IOException {
+        if (qualities.length == 0) {
+            qualities = BENCHMARK_QUALITIES;
+        }
+        int[] reference = luma(bitmap);
+        List<Result> results = new ArrayList<>();
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        long[] runNs = new long[BENCHMARK_RUNS];
+        for (Format candidate : Format.values()) {
+            ImageEncoder encoder = new ImageEncoder(candidate, 100);
+            for (int quality : qualities) {
+                quality = Math.max(0, Math.min(100, quality));
+                for (int i = 0; i < BENCHMARK_WARMUP_RUNS; i++) {
+                    encoder.encodedSize(bitmap, quality, encoded);
+                }
+                for (int i = 0; i < BENCHMARK_RUNS; i++) {
+                    long startNs = System.nanoTime();
+                    encoder.encodedSize(bitmap, quality, encoded);
+                    runNs[i] = System.nanoTime() - startNs;
+                }
+                Arrays.sort(runNs);
+                long medianNs = runNs[BENCHMARK_RUNS / 2];
+                Result result = new Result(candidate, quality, encoded.size(),
+                        encoder.ssim(reference, encoded), BENCHMARK_RUNS, medianNs / 1_000_000);
+                Log.d(TAG, String.format(Locale.US, "Benchmark %dx%d %s q%d: %d bytes, ssim %.4f, median %.2fms (%.2f-%.2fms)",
+                        bitmap.getWidth(), bitmap.getHeight(), candidate, quality, result.bytes, result.ssim,
+                        medianNs / 1e6, runNs[0] / 1e6, runNs[BENCHMARK_RUNS - 1] / 1e6));
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Bounded binary search for the quality, leaves the chosen encoding in the stream
+     */
+    private Result search(Bitmap bitmap, ByteArrayOutputStream encoded) throws IOException {
+        long startNs = System.nanoTime();
+        int[] reference = minSsim > 0 ? luma(bitmap) : null;
+        int[] attempts = {0};
+        QualityProbe probe = new QualityProbe() {
+            @Override
+            public long encode(int quality) throws IOException {
+                attempts[0]++;
+                return encodedSize(bitmap, quality, encoded);
+            }
+
+            @Override
+            public double ssim() throws IOException {
+                return ImageEncoder.this.ssim(reference, encoded);
+            }
+        };
+        int best = searchQuality(probe, quality, maxBytes, reference != null ? minSsim : 0);
+
+        long bytes = probe.encode(best);
+        double ssim = reference != null ? probe.ssim() : -1;
+        if (maxBytes > 0 && bytes > maxBytes) {
+            Log.d(TAG, "Budget of " + maxBytes + " bytes not reachable, " + bytes + " bytes at q" + best);
+        }
+        return new Result(format, best, bytes, ssim, attempts[0], (System.nanoTime() - startNs) / 1_000_000);
+    }
+
+    /**
+     * One encode of the source per call, separated from Bitmap so the search can be tested
+     */
+    interface QualityProbe {
+        /**
+         * @return Size in bytes of the source encoded at this quality
+         */
+        long encode(int quality) throws IOException;
+
+        /**
+         * @return SSIM of the last encode against the source
+         */
+        double ssim() throws IOException;
+    }
+
+    /**
+     * The highest quality up to maxQuality that fits the budget, lowered to the lowest quality
+     * that still keeps the SSIM floor. Never goes below MIN_QUALITY (or maxQuality if lower)
+     * and makes at most MAX_SEARCH_STEPS encodes per criterion.
+     *
+     * @param probe      Encoder of the source
+     * @param maxQuality Highest quality to try
+     * @param maxBytes   Byte budget, 0 for none
+     * @param minSsim    SSIM floor, 0 for none
+     * @return Chosen quality
+     */
+    static int searchQuality(QualityProbe probe, int maxQuality, long maxBytes, double minSsim) throws IOException {
+        int minQuality = Math.min(MIN_QUALITY, maxQuality);
+
+        // Highest quality that fits the budget
+        int best = maxQuality;
+        if (maxBytes > 0) {
+            int low = minQuality;
+            int high = maxQuality;
+            best = minQuality;
+            for (int step = 0; step < MAX_SEARCH_STEPS && low <= high; step++) {
+                int mid = (low + high) >>> 1;
+                if (probe.encode(mid) <= maxBytes) {
+                    best = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+        }
+
+        // Lowest quality below that which still keeps the SSIM floor
+        if (minSsim > 0 && best > minQuality) {
+            int low = minQuality;
+            int high = best;
+            for (int step = 0; step < MAX_SEARCH_STEPS && low < high; step++) {
+                int mid = (low + high) >>> 1;
+                probe.encode(mid);
+                if (probe.ssim() >= minSsim) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            best = high;
+        }
+        return best;
+    }
+
+    private long encodedSize(Bitmap bitmap, int quality, ByteArrayOutputStream encoded) throws IOException {
+        encoded.reset();
+        compress(bitmap, quality, encoded);
+        return encoded.size();
+    }
+
+    private void compress(Bitmap bitmap, int quality, OutputStream out) throws IOException {
+        if (!bitmap.compress(format.compressFormat, quality, out)) {
+            throw new IOException("Failed to encode " + format);
+        }
+    }
+
+    /**
+     * SSIM between the reference luma and the decoded encoding
+     */
+    private double ssim(int[] reference, ByteArrayOutputStream encoded) throws IOException {
+        byte[] bytes = encoded.toByteArray();
+        Bitmap decoded = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+        if (decoded == null) {
+            throw new IOException("Failed to decode " + format + " for SSIM");
+        }
+        int[] candidate = luma(decoded);
+        decoded.recycle();
+        return ssim(reference, candidate);
+    }
+
+    /**
+     * Downscaled luma plane, the first two values are width and height
+     */
+    private static int[] luma(Bitmap bitmap) {
+        float scale = Math.min(1f, (float) SSIM_SIZE / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        Bitmap scaled = scale < 1f ? Bitmap.createScaledBitmap(bitmap, width, height, true) : bitmap;
+
+        int[] pixels = new int[width * height];
+        scaled.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+        int[] luma = new int[pixels.length + 2];
+        luma[0] = width;
+        luma[1] = height;
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            luma[i + 2] = (299 * Color.red(p) + 587 * Color.green(p) + 114 * Color.blue(p)) / 1000;
+        }
+        return luma;
+    }
+
+    /**
+     * Mean SSIM over non-overlapping windows of two luma planes with the layout of {@link #luma(Bitmap)}
+     */
+    static double ssim(int[] a, int[] b) {
+        int width = a[0];
+        int height = a[1];
+        if (b[0] != width || b[1] != height) {
+            return 0;
+        }
+        final double c1 = (0.01 * 255) * (0.01 * 255);
+        final double c2 = (0.03 * 255) * (0.03 * 255);
+        double total = 0;
+        int windows = 0;
+        for (int y = 0; y + SSIM_WINDOW <= height; y += SSIM_WINDOW) {
+            for (int x = 0; x + SSIM_WINDOW <= width; x += SSIM_WINDOW) {
+                double sumA = 0, sumB = 0, sumAA = 0, sumBB = 0, sumAB = 0;
+                for (int wy = 0; wy < SSIM_WINDOW; wy++) {
+                    int row = 2 + (y + wy) * width + x;
+                    for (int wx = 0; wx < SSIM_WINDOW; wx++) {
+                        int va = a[row + wx];
+                        int vb = b[row + wx];
+                        sumA += va;
+                        sumB += vb;
+                        sumAA += va * va;
+                        sumBB += vb * vb;
+                        sumAB += va * vb;
+                    }
+                }
+                int n = SSIM_WINDOW * SSIM_WINDOW;
+                double meanA = sumA / n;
+                double meanB = sumB / n;
+                double varA = sumAA / n - meanA * meanA;
+                double varB = sumBB / n - meanB * meanB;
+                double cov = sumAB / n - meanA * meanB;
+                total += ((2 * meanA * meanB + c1) * (2 * cov + c2))
+                        / ((meanA * meanA + meanB * meanB + c1) * (varA + varB + c2));
+                windows++;
+            }
+        }
+        // Images smaller than one window are compared as a whole
+        return windows > 0 ? total / windows : (Arrays.equals(a, b) ? 1 : 0);
+    }
+}
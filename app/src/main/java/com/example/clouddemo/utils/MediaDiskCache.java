@@ -0,0 +1,373 @@
+package com.example.clouddemo.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.clouddemo.api.RetrofitClient;
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MediaDiskCache is a size-bounded cache of downloaded media keyed by URL.
+ * Entries live in the app cache directory and are evicted least recently used first.
+ * Every change is appended to a journal so the index and its LRU order survive restarts.
+ * The ETag and Last-Modified of each entry are kept for conditional revalidation.
+ * Pinned entries are being read and are skipped by eviction until unpinned, and a
+ * response larger than the whole cache is handed to the caller without being kept.
+ */
+public class MediaDiskCache {
+    private static final String TAG = "MediaDiskCache";
+    private static final String CACHE_DIR = "media_cache";
+    private static final String JOURNAL_FILE = "journal";
+    private static final long DEFAULT_MAX_BYTES = 100L * 1024 * 1024;
+    // Rewrite the journal once it holds this many more records than entries
+    private static final int COMPACT_THRESHOLD = 200;
+
+    private static final String OP_PUT = "put";
+    private static final String OP_READ = "read";
+    private static final String OP_REMOVE = "remove";
+
+    private static MediaDiskCache instance;
+
+    /**
+     * One cached response, also the record written to the journal
+     */
+    public static class Entry {
+        String op;
+        public String url;
+        public String fileName;
+        public String contentType;
+        public String etag;
+        public String lastModified;
+        public long size;
+
+        transient File file;
+        // Readers of the file, guarded by the cache
+        transient int pins;
+
+        /**
+         * Cached file, valid until the entry is evicted, see {@link #pin}
+         */
+        public File getFile() {
+            return file;
+        }
+    }
+
+    private final File directory;
+    private final File journalFile;
+    private final Gson gson;
+    private long maxBytes;
+    private long totalBytes = 0;
+    private int journalRecords = 0;
+
+    // Access order, the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits = 0;
+    private long misses = 0;
+    private long revalidations = 0;
+    private long evictedBytes = 0;
+
+    private MediaDiskCache(Context context, long maxBytes) {
+        this.directory = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.gson = RetrofitClient.getInstance().getGson();
+        this.maxBytes = maxBytes;
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create directory: " + directory);
+        }
+        restore();
+    }
+
+    public static synchronized MediaDiskCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaDiskCache(context, DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * Set the maximum size of the cache, evicting entries if needed
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    /**
+     * Look up a cached response, counting a hit or miss
+     *
+     * @param url URL of the media
+     * @return Entry or null if the URL is not cached
+     */
+    @Nullable
+    public synchronized Entry get(@NonNull String url) {
+        Entry entry = entries.get(url);
+        if (entry == null || !entry.file.exists()) {
+            if (entry != null) {
+                remove(entry);
+            }
+            misses++;
+            return null;
+        }
+        hits++;
+        appendRecord(OP_READ, entry);
+        return entry;
+    }
+
+    /**
+     * Record that the server confirmed a cached entry is still current (HTTP 304)
+     */
+    public synchronized void markRevalidated(@NonNull Entry entry, @Nullable String etag,
+                                             @Nullable String lastModified) {
+        revalidations++;
+        if (etag != null) {
+            entry.etag = etag;
+        }
+        if (lastModified != null) {
+            entry.lastModified = lastModified;
+        }
+        appendRecord(OP_PUT, entry);
+    }
+
+    /**
+     * Keep the file of an entry from being evicted while it is read.
+     * Every pin must be followed by {@link #unpin}.
+     */
+    public synchronized void pin(@NonNull Entry entry) {
+        entry.pins++;
+    }
+
+    /**
+     * Release a pin, evicting entries that were kept over the budget for it
+     */
+    public synchronized void unpin(@NonNull Entry entry) {
+        if (entry.pins > 0 && --entry.pins == 0) {
+            trimToSize();
+        }
+    }
+
+    /**
+     * Temporary file in the cache directory to download a response into before {@link #commit}
+     */
+    @NonNull
+    public File newTempFile() throws IOException {
+        return File.createTempFile("download", ".tmp", directory);
+    }
+
+    /**
+     * Move a downloaded response into the cache
+     *
+     * @param url          URL of the media
+     * @param tempFile     File created with {@link #newTempFile()} holding the response body
+     * @param extension    File extension without the dot
+     * @param contentType  Content type of the response
+     * @param etag         ETag header of the response, if any
+     * @param lastModified Last-Modified header of the response, if any
+     * @return Cached entry, not kept in the index if it is larger than the whole cache
+     */
+    @NonNull
+    public synchronized Entry commit(@NonNull String url, @NonNull File tempFile, @NonNull String extension,
+                                     @Nullable String contentType, @Nullable String etag,
+                                     @Nullable String lastModified) throws IOException {
+        Entry entry = new Entry();
+        entry.url = url;
+        byte[] urlHash = MediaUtils.newSha256().digest(url.getBytes(StandardCharsets.UTF_8));
+        entry.fileName = MediaUtils.toHex(urlHash) + "." + extension;
+        entry.contentType = contentType;
+        entry.etag = etag;
+        entry.lastModified = lastModified;
+        entry.file = new File(directory, entry.fileName);
+
+        Entry previous = entries.remove(url);
+        if (previous != null) {
+            totalBytes -= previous.size;
+            appendRecord(OP_REMOVE, previous);
+            // The same file name is replaced by the rename, a pinned reader keeps its open file
+            if (!previous.fileName.equals(entry.fileName) && previous.pins == 0) {
+                previous.file.delete();
+            }
+        }
+
+        if (!tempFile.renameTo(entry.file)) {
+            tempFile.delete();
+            throw new IOException("Failed to move download into cache");
+        }
+        entry.size = entry.file.length();
+
+        if (entry.size > maxBytes) {
+            // Keeping it would evict everything else and then itself. The file is
+            // unknown to the journal and deleted on the next start.
+            Log.d(TAG, "Not caching " + url + ", " + entry.size + " bytes is over the limit of " + maxBytes);
+            return entry;
+        }
+        entries.put(url, entry);
+        totalBytes += entry.size;
+        appendRecord(OP_PUT, entry);
+        trimToSize();
+        return entry;
+    }
+
+    public synchronized long size() {
+        return totalBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getRevalidationCount() {
+        return revalidations;
+    }
+
+    public synchronized long getEvictedBytes() {
+        return evictedBytes;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    private void trimToSize() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+            if (eldest.pins > 0) {
+                // Evicted once unpinned
+                continue;
+            }
+            it.remove();
+            totalBytes -= eldest.size;
+            evictedBytes += eldest.size;
+            eldest.file.delete();
+            appendRecord(OP_REMOVE, eldest);
+            Log.d(TAG, "Evicted " + eldest.url + " (" + eldest.size + " bytes)");
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.url);
+        totalBytes -= entry.size;
+        entry.file.delete();
+        appendRecord(OP_REMOVE, entry);
+    }
+
+    /**
+     * Append one record to the journal
+     */
+    private void appendRecord(String op, Entry entry) {
+        entry.op = op;
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(journalFile, true), StandardCharsets.UTF_8)) {
+            writer.write(gson.toJson(entry));
+            writer.write('\n');
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing cache journal: " + e.getMessage());
+        }
+        journalRecords++;
+        if (journalRecords >= entries.size() + COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Replay the journal and delete files it does not know about
+     */
+    private void restore() {
+        if (journalFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Entry record;
+                    try {
+                        record = gson.fromJson(line, Entry.class);
+                    } catch (Exception e) {
+                        // A torn last line from a crash mid-write, ignore it
+                        continue;
+                    }
+                    if (record == null || record.url == null) {
+                        continue;
+                    }
+                    if (OP_PUT.equals(record.op)) {
+                        record.file = new File(directory, record.fileName);
+                        entries.put(record.url, record);
+                    } else if (OP_READ.equals(record.op)) {
+                        entries.get(record.url);
+                    } else if (OP_REMOVE.equals(record.op)) {
+                        entries.remove(record.url);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading cache journal: " + e.getMessage());
+            }
+        }
+
+        Set<String> known = new HashSet<>();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (!entry.file.exists()) {
+                it.remove();
+                continue;
+            }
+            entry.size = entry.file.length();
+            totalBytes += entry.size;
+            known.add(entry.fileName);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().equals(JOURNAL_FILE) && !known.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+        Log.d(TAG, "Restored " + entries.size() + " cached files, " + totalBytes + " bytes");
+        compact();
+        trimToSize();
+    }
+
+    /**
+     * Rewrite the journal with one record per entry, least recently used first
+     */
+    private void compact() {
+        File temp = new File(journalFile.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                entry.op = OP_PUT;
+                writer.write(gson.toJson(entry));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error compacting cache journal: " + e.getMessage());
+            return;
+        }
+        if (temp.renameTo(journalFile)) {
+            journalRecords = entries.size();
+        } else {
+            Log.e(TAG, "Failed to replace cache journal");
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.clouddemo.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MediaScheduler runs all background media work on bounded pools:
+ * a CPU pool sized to the cores for bitmap decode/encode, an I/O pool for
+ * short file copies and network calls, a transfer pool for long jobs such as
+ * uploads, downloads and transcodes so they can't hold up the I/O pool, and a part
+ * pool shared by the chunks and segments of parallel transfers. Queued tasks run in
+ * priority order (FIFO within a priority) and can be cancelled through the returned Future.
+ */
+public class MediaScheduler {
+    private static final String TAG = "MediaScheduler";
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+
+    private static final int CPU_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int IO_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    // Long running transfers, further ones wait in the queue instead of taking I/O threads
+    private static final int TRANSFER_THREADS = 3;
+    // Chunks in flight across all transfers, each transfer also keeps its own window
+    private static final int PART_THREADS = 8;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private static final Pool cpuPool = new Pool("media-cpu", CPU_THREADS);
+    private static final Pool ioPool = new Pool("media-io", IO_THREADS);
+    private static final Pool transferPool = new Pool("media-transfer", TRANSFER_THREADS);
+    private static final Pool partPool = new Pool("media-part", PART_THREADS);
+
+    /**
+     * Counters of one pool
+     */
+    public static class Stats {
+        public final int queueDepth;
+        public final int active;
+        public final long completed;
+        public final long averageWaitMs;
+        public final long averageRunMs;
+
+        Stats(int queueDepth, int active, long completed, long averageWaitMs, long averageRunMs) {
+            this.queueDepth = queueDepth;
+            this.active = active;
+            this.completed = completed;
+            this.averageWaitMs = averageWaitMs;
+            this.averageRunMs = averageRunMs;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "queued=" + queueDepth + ", active=" + active + ", completed=" + completed
+                    + ", avgWait=" + averageWaitMs + "ms, avgRun=" + averageRunMs + "ms";
+        }
+    }
+
+    private static class Pool {
+        final ThreadPoolExecutor executor;
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong totalWaitNs = new AtomicLong();
+        final AtomicLong totalRunNs = new AtomicLong();
+
+        Pool(final String name, int threads) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            ThreadFactory factory = runnable -> {
+                Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            };
+            // The queue is unbounded, so the pool never grows past its core size
+            executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<>(), factory);
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        <T> Future<T> submit(int priority, Callable<T> callable) {
+            PriorityTask<T> task = new PriorityTask<>(this, priority, callable);
+            executor.execute(task);
+            return task;
+        }
+
+        Stats stats() {
+            long count = completed.get();
+            return new Stats(executor.getQueue().size(), executor.getActiveCount(), count,
+                    count == 0 ? 0 : totalWaitNs.get() / count / 1_000_000,
+                    count == 0 ? 0 : totalRunNs.get() / count / 1_000_000);
+        }
+    }
+
+    private static class PriorityTask<T> extends FutureTask<T> implements Comparable<PriorityTask<?>> {
+        final Pool pool;
+        final int priority;
+        final long order = sequence.incrementAndGet();
+        final long queuedAtNs = System.nanoTime();
+
+        PriorityTask(Pool pool, int priority, Callable<T> callable) {
+            super(callable);
+            this.pool = pool;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run() {
+            long startNs = System.nanoTime();
+            try {
+                super.run();
+            } finally {
+                pool.totalWaitNs.addAndGet(startNs - queuedAtNs);
+                pool.totalRunNs.addAndGet(System.nanoTime() - startNs);
+                pool.completed.incrementAndGet();
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (!isCancelled()) {
+                try {
+                    get();
+                } catch (Exception e) {
+                    Log.e(TAG, "Media task failed", e.getCause() != null ? e.getCause() : e);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(PriorityTask<?> other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    /**
+     * Run CPU-bound work such as bitmap decode/encode
+     *
+     * @return Future that can be used to cancel the task
+     */
+    @NonNull
+    public static Future<?> runCpu(int priority, @NonNull Runnable runnable) {
+        return cpuPool.submit(priority, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run I/O-bound work such as file copies and network calls
+     *
+     * @return Future that can be used to cancel the task
+     */
+    @NonNull
+    public static Future<?> runIo(int priority, @NonNull Runnable runnable) {
+        return ioPool.submit(priority, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run a long blocking job such as an upload, download or transcode
+     *
+     * @return Future that can be used to cancel the task
+     */
+    @NonNull
+    public static Future<?> runTransfer(int priority, @NonNull Runnable runnable) {
+        return transferPool.submit(priority, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Executor running tasks on the CPU pool with the given priority,
+     * e.g. for CompletableFuture.supplyAsync
+     */
+    @NonNull
+    public static Executor cpuExecutor(int priority) {
+        return runnable -> runCpu(priority, runnable);
+    }
+
+    /**
+     * Executor running tasks on the I/O pool with the given priority
+     */
+    @NonNull
+    public static Executor ioExecutor(int priority) {
+        return runnable -> runIo(priority, runnable);
+    }
+
+    /**
+     * Executor for the parts of a transfer, e.g. the chunks of a parallel upload
+     * or the segments of a download.
+     * Part tasks must not wait on other tasks, the transfer waits for its parts.
+     */
+    @NonNull
+    public static Executor partExecutor(int priority) {
+        return runnable -> partPool.submit(priority, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    @NonNull
+    public static Stats getCpuStats() {
+        return cpuPool.stats();
+    }
+
+    @NonNull
+    public static Stats getIoStats() {
+        return ioPool.stats();
+    }
+
+    @NonNull
+    public static Stats getTransferStats() {
+        return transferPool.stats();
+    }
+
+    @NonNull
+    public static Stats getPartStats() {
+        return partPool.stats();
+    }
+}
@@ -4,41 +4,117 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
+import android.graphics.Canvas;
+import android.graphics.ImageDecoder;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.media.MediaMetadataRetriever;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Debug;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.content.FileProvider;
-import androidx.exifinterface.media.ExifInterface;
 
-import java.io.BufferedInputStream;
+import com.example.clouddemo.api.RetrofitClient;
+import com.google.gson.reflect.TypeToken;
+
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
 
 public class MediaUtils {
     private static final String TAG = "MediaUtils";
     private static final String IMAGE_FOLDER = "images";
     private static final String VIDEO_FOLDER = "videos";
     private static final String THUMBNAIL_FOLDER = "thumbnails";
-    private static final int BUFFER_SIZE = 4096;
+    // Saved images are downscaled to fit in a box of this size
+    private static final int MAX_IMAGE_SIZE = 1280;
+
+    private static final String SAVED_SOURCES_FILE = "saved_sources.json";
+    // Source of each saved file by saved file path, persisted so dedup survives restarts
+    private static final Map<String, SavedSource> savedSources = new ConcurrentHashMap<>();
+    private static boolean savedSourcesLoaded = false;
+
+    // Width of video thumbnails, frames are extracted at this size
+    private static final int THUMBNAIL_WIDTH = 512;
+    // Thumbnails by source, version, width and encoder settings, so repeat requests skip the retriever.
+    // Least recently used entries are dropped past THUMBNAIL_CACHE_ENTRIES, the files stay on disk
+    private static final int THUMBNAIL_CACHE_ENTRIES = 256;
+    private static final Map<String, File> thumbnailCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, File>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+                    return size() > THUMBNAIL_CACHE_ENTRIES;
+                }
+            });
+    // The thumbnail directory is trimmed to this size, least recently used files first. Thumbnails
+    // can disappear at any time, callers that keep a path, e.g. for a queued upload, copy the file
+    private static final long THUMBNAIL_DIRECTORY_BYTES = 32L * 1024 * 1024;
+    // Records the encoder settings the thumbnails on disk were written with
+    private static final String THUMBNAIL_CONFIG_FILE = ".encoder";
+    private static final Object thumbnailDirectoryLock = new Object();
+    private static String thumbnailDirectoryConfig;
+    // Largest growth of Java plus native heap seen while a frame was held, see getThumbnailPeakMemory
+    private static final AtomicLong thumbnailPeakMemory = new AtomicLong();
+    private static final AtomicLong thumbnailHits = new AtomicLong();
+    private static final AtomicLong thumbnailMisses = new AtomicLong();
+
+    // Saved images and thumbnails are encoded with these, JPEG 85 unless set otherwise, see setImageEncoder
+    private static volatile ImageEncoder imageEncoder = new ImageEncoder(ImageEncoder.Format.JPEG, 85);
+    private static volatile ImageEncoder thumbnailEncoder = new ImageEncoder(ImageEncoder.Format.JPEG, 85);
 
-    // Executor for background operations
-    private static final Executor executor = Executors.newCachedThreadPool();
+    /**
+     * The content a saved file was created from, and how it was written
+     */
+    public static class SavedSource {
+        // Hex SHA-256 of the source content
+        public String contentHash;
+        // How the file was produced from the source, e.g. the image encoder settings
+        public String encoding;
+        long length;
+        long lastModified;
+    }
 
     /**
      * Determine if a URI is an image or video
@@ -85,7 +161,27 @@ public class MediaUtils {
 
         return CompletableFuture.supplyAsync(() -> {
             return saveMediaToInternalStorage(context, mediaUri, mediaType);
-        }, executor);
+        }, "image".equals(mediaType)
+                ? MediaScheduler.cpuExecutor(MediaScheduler.PRIORITY_NORMAL)
+                : MediaScheduler.ioExecutor(MediaScheduler.PRIORITY_NORMAL));
+    }
+
+    /**
+     * Set the encoder of saved images. Switching to WebP also changes the format that gets uploaded.
+     *
+     * @param encoder Format, quality and optional byte budget or SSIM floor
+     */
+    public static void setImageEncoder(@NonNull ImageEncoder encoder) {
+        imageEncoder = encoder;
+    }
+
+    /**
+     * Set the encoder of video thumbnails
+     *
+     * @param encoder Format, quality and optional byte budget or SSIM floor
+     */
+    public static void setThumbnailEncoder(@NonNull ImageEncoder encoder) {
+        thumbnailEncoder = encoder;
     }
 
     /**
@@ -103,8 +199,9 @@ public class MediaUtils {
             @NonNull String mediaType) {
 
         File destinationFile = null;
-        InputStream inputStream = null;
-        OutputStream outputStream = null;
+        String contentHash = null;
+        String encoding = null;
+        ImageEncoder encoder = imageEncoder;
 
         try {
             // Generate filename based on timestamp
@@ -114,7 +211,7 @@ public class MediaUtils {
 
             switch (mediaType) {
                 case "image":
-                    fileName = "IMG_" + timeStamp + ".jpg";
+                    fileName = "IMG_" + timeStamp + encoder.getFormat().extension;
                     folderName = IMAGE_FOLDER;
                     break;
                 case "video":
@@ -137,103 +234,227 @@ public class MediaUtils {
 
             // Process based on media type
             if ("image".equals(mediaType)) {
-                inputStream = context.getContentResolver().openInputStream(mediaUri);
-                if (inputStream == null) {
-                    Log.e(TAG, "Failed to open input stream for: " + mediaUri);
-                    return null;
-                }
-
-                // Decode image to check dimensions and possibly resize
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeStream(inputStream, null, options);
-                inputStream.close();
+                contentHash = saveImage(context, mediaUri, destinationFile, encoder);
+                encoding = "image-" + MAX_IMAGE_SIZE + "-" + encoder.getConfigKey();
 
-                // Reopen the stream
-                inputStream = context.getContentResolver().openInputStream(mediaUri);
-                if (inputStream == null) {
+            } else if ("video".equals(mediaType)) {
+                contentHash = saveVideo(context, mediaUri, destinationFile);
+                if (contentHash == null) {
                     return null;
                 }
+                encoding = "copy";
+            }
+
+            if (contentHash != null) {
+                recordSavedSource(context, destinationFile, contentHash, encoding);
+            }
+            Log.d(TAG, "Media saved successfully: " + destinationFile.getAbsolutePath());
+            return destinationFile;
 
-                // Calculate sample size if image is too large
-                options.inJustDecodeBounds = false;
-                options.inSampleSize = calculateInSampleSize(options, 1280, 1280);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving media: " + e.getMessage(), e);
+            if (destinationFile != null && destinationFile.exists()) {
+                destinationFile.delete();
+            }
+            return null;
+        }
+    }
 
-                Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
-                inputStream.close();
+    /**
+     * Decode, downscale and re-encode an image with a single pass over the source.
+     * The source is memory mapped (or copied once to a temp file and mapped when the
+     * uri is not a seekable file), hashed from the mapping, and decoded by ImageDecoder
+     * straight to the target size. ImageDecoder applies the EXIF orientation while
+     * decoding, so no second rotated bitmap is allocated.
+     *
+     * @return Hex SHA-256 of the source content
+     */
+    private static String saveImage(@NonNull Context context, @NonNull Uri mediaUri,
+                                    @NonNull File destinationFile, @NonNull ImageEncoder encoder) throws IOException {
+        long startNs = System.nanoTime();
+        File tempFile = null;
+        ParcelFileDescriptor pfd = null;
+        FileInputStream sourceStream = null;
 
-                // Handle image rotation based on EXIF
+        try {
+            MappedByteBuffer source = null;
+            pfd = context.getContentResolver().openFileDescriptor(mediaUri, "r");
+            if (pfd != null && pfd.getStatSize() > 0) {
+                sourceStream = new FileInputStream(pfd.getFileDescriptor());
                 try {
-                    inputStream = context.getContentResolver().openInputStream(mediaUri);
-                    if (inputStream != null) {
-                        ExifInterface exif = new ExifInterface(inputStream);
-                        int orientation = exif.getAttributeInt(
-                                ExifInterface.TAG_ORIENTATION,
-                                ExifInterface.ORIENTATION_NORMAL);
-
-                        if (orientation != ExifInterface.ORIENTATION_NORMAL) {
-                            Matrix matrix = new Matrix();
-                            switch (orientation) {
-                                case ExifInterface.ORIENTATION_ROTATE_90:
-                                    matrix.postRotate(90);
-                                    break;
-                                case ExifInterface.ORIENTATION_ROTATE_180:
-                                    matrix.postRotate(180);
-                                    break;
-                                case ExifInterface.ORIENTATION_ROTATE_270:
-                                    matrix.postRotate(270);
-                                    break;
-                            }
-
-                            bitmap = Bitmap.createBitmap(
-                                    bitmap,
-                                    0, 0,
-                                    bitmap.getWidth(), bitmap.getHeight(),
-                                    matrix, true);
-                        }
-                        inputStream.close();
-                    }
+                    FileChannel channel = sourceStream.getChannel();
+                    source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
                 } catch (IOException e) {
-                    Log.e(TAG, "Error processing EXIF data: " + e.getMessage());
+                    // Pipes and sockets can't be mapped
+                    source = null;
                 }
+            }
 
-                // Save the processed bitmap
-                outputStream = new FileOutputStream(destinationFile);
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 85, outputStream);
-                bitmap.recycle(); // Explicitly recycle bitmap
+            if (source == null) {
+                // Not a regular file, copy it once so it can be mapped
+                tempFile = File.createTempFile("decode_", ".tmp", context.getCacheDir());
+                InputStream in = context.getContentResolver().openInputStream(mediaUri);
+                if (in == null) {
+                    throw new IOException("Failed to open input stream for: " + mediaUri);
+                }
+                try (InputStream input = in; OutputStream out = new FileOutputStream(tempFile)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int length;
+                    while ((length = input.read(buffer)) != -1) {
+                        out.write(buffer, 0, length);
+                    }
+                }
+                closeQuietly(sourceStream);
+                sourceStream = new FileInputStream(tempFile);
+                FileChannel channel = sourceStream.getChannel();
+                source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
 
-            } else if ("video".equals(mediaType)) {
-                inputStream = context.getContentResolver().openInputStream(mediaUri);
-                if (inputStream == null) {
-                    return null;
+            MessageDigest digest = newSha256();
+            digest.update(source.duplicate());
+            String contentHash = toHex(digest.digest());
+
+            // Read bounds from the header and decode directly to fit the target box
+            ImageDecoder.Source decoderSource = ImageDecoder.createSource(source);
+            Bitmap bitmap = ImageDecoder.decodeBitmap(decoderSource, (decoder, info, src) -> {
+                int width = info.getSize().getWidth();
+                int height = info.getSize().getHeight();
+                float scale = Math.min(1f, Math.min((float) MAX_IMAGE_SIZE / width, (float) MAX_IMAGE_SIZE / height));
+                if (scale < 1f) {
+                    decoder.setTargetSize(Math.max(1, Math.round(width * scale)),
+                            Math.max(1, Math.round(height * scale)));
                 }
+                decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                // Mutable so the bitmap can go to the pool and back into BitmapFactory decodes
+                decoder.setMutableRequired(true);
+            });
+
+            encoder.encode(bitmap, destinationFile);
+            Log.d(TAG, "Image decoded to " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                    + " (" + bitmap.getAllocationByteCount() + " bytes) in "
+                    + (System.nanoTime() - startNs) / 1_000_000 + " ms");
+            BitmapPool.getInstance(context).put(bitmap);
+            return contentHash;
 
-                outputStream = new FileOutputStream(destinationFile);
-                BufferedInputStream bis = new BufferedInputStream(inputStream);
+        } finally {
+            closeQuietly(sourceStream);
+            closeQuietly(pfd);
+            if (tempFile != null && !tempFile.delete()) {
+                Log.e(TAG, "Failed to delete temp file: " + tempFile);
+            }
+        }
+    }
 
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int length;
-                while ((length = bis.read(buffer)) > 0) {
-                    outputStream.write(buffer, 0, length);
-                }
+    /**
+     * Copy a video from a content Uri through its file descriptor without a Java byte loop
+     *
+     * @return Hex SHA-256 of the video, or null if the Uri could not be opened
+     */
+    @Nullable
+    private static String saveVideo(@NonNull Context context, @NonNull Uri mediaUri,
+                                    @NonNull File destinationFile) throws IOException {
+        try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(mediaUri, "r")) {
+            if (pfd == null) {
+                return null;
             }
+            MessageDigest digest = newSha256();
+            try (FileInputStream fis = new FileInputStream(pfd.getFileDescriptor());
+                 RandomAccessFile raf = new RandomAccessFile(destinationFile, "rw")) {
+                raf.setLength(0);
+                // getStatSize is negative for pipes, which must be streamed
+                FileTransfer.copy(fis.getChannel(), pfd.getStatSize(), raf.getChannel(), digest);
+            }
+            return toHex(digest.digest());
+        }
+    }
 
-            Log.d(TAG, "Media saved successfully: " + destinationFile.getAbsolutePath());
-            return destinationFile;
+    /**
+     * Get the original content a saved media file was created from
+     *
+     * @param context Application context
+     * @param file    File returned by saveMediaToInternalStorage
+     * @return Source hash and encoding, or null if the file was not saved by this app or changed since
+     */
+    @Nullable
+    public static SavedSource getSavedSource(@NonNull Context context, @Nullable File file) {
+        if (file == null) {
+            return null;
+        }
+        loadSavedSources(context);
+        SavedSource source = savedSources.get(file.getAbsolutePath());
+        if (source == null || source.length != file.length() || source.lastModified != file.lastModified()) {
+            return null;
+        }
+        return source;
+    }
 
+    private static synchronized void recordSavedSource(Context context, File file, String contentHash,
+                                                       String encoding) {
+        loadSavedSources(context);
+        SavedSource source = new SavedSource();
+        source.contentHash = contentHash;
+        source.encoding = encoding;
+        source.length = file.length();
+        source.lastModified = file.lastModified();
+        savedSources.put(file.getAbsolutePath(), source);
+
+        File indexFile = new File(context.getFilesDir(), SAVED_SOURCES_FILE);
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            RetrofitClient.getInstance().getGson().toJson(savedSources, writer);
         } catch (IOException e) {
-            Log.e(TAG, "Error saving media: " + e.getMessage(), e);
-            if (destinationFile != null && destinationFile.exists()) {
-                destinationFile.delete();
+            Log.e(TAG, "Error writing saved sources: " + e.getMessage());
+            return;
+        }
+        if (!temp.renameTo(indexFile)) {
+            Log.e(TAG, "Failed to replace saved sources");
+        }
+    }
+
+    /**
+     * Read the persisted sources once, dropping files deleted since
+     */
+    private static synchronized void loadSavedSources(Context context) {
+        if (savedSourcesLoaded) {
+            return;
+        }
+        savedSourcesLoaded = true;
+        File indexFile = new File(context.getFilesDir(), SAVED_SOURCES_FILE);
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8)) {
+            Map<String, SavedSource> stored = RetrofitClient.getInstance().getGson()
+                    .fromJson(reader, new TypeToken<Map<String, SavedSource>>() {}.getType());
+            if (stored != null) {
+                for (Map.Entry<String, SavedSource> entry : stored.entrySet()) {
+                    if (new File(entry.getKey()).exists()) {
+                        savedSources.put(entry.getKey(), entry.getValue());
+                    }
+                }
             }
-            return null;
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading saved sources: " + e.getMessage());
+        }
+    }
 
-        } finally {
-            closeQuietly(inputStream);
-            closeQuietly(outputStream);
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android runtime provides SHA-256
+            throw new IllegalStateException(e);
         }
     }
 
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
     /**
      * Create a thumbnail from a video file asynchronously
      *
@@ -248,7 +469,7 @@ public class MediaUtils {
 
         return CompletableFuture.supplyAsync(() -> {
             return createVideoThumbnail(context, videoFile);
-        }, executor);
+        }, MediaScheduler.cpuExecutor(MediaScheduler.PRIORITY_HIGH));
     }
 
     /**
@@ -260,26 +481,199 @@ public class MediaUtils {
      */
     @Nullable
     public static File createVideoThumbnail(@NonNull Context context, @NonNull File videoFile) {
-        FileOutputStream fos = null;
-        MediaMetadataRetriever retriever = null;
+        String videoName = videoFile.getName();
+        int dot = videoName.lastIndexOf(".");
+        String key = videoFile.getAbsolutePath() + "#" + videoFile.lastModified();
+        return createVideoThumbnail(context, dot > 0 ? videoName.substring(0, dot) : videoName, key,
+                videoFile.lastModified(), retriever -> retriever.setDataSource(videoFile.getAbsolutePath()));
+    }
 
+    /**
+     * Create a thumbnail from a video uri, reading the source in place
+     *
+     * @param context  Application context
+     * @param videoUri Content uri of the video
+     * @param name     Base name of the thumbnail file
+     * @return File object of the saved thumbnail, or null if creation failed
+     */
+    @Nullable
+    public static File createVideoThumbnail(@NonNull Context context, @NonNull Uri videoUri, @NonNull String name) {
+        Context appContext = context.getApplicationContext();
+        // Content uris have no modification time, the size tells a replaced source apart
+        long size = -1;
+        try (ParcelFileDescriptor pfd = appContext.getContentResolver().openFileDescriptor(videoUri, "r")) {
+            if (pfd != null) {
+                size = pfd.getStatSize();
+            }
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "Can't stat " + videoUri + ": " + e.getMessage());
+        }
+        String key = videoUri + "#" + size;
+        return createVideoThumbnail(context, name, key, 0,
+                retriever -> retriever.setDataSource(appContext, videoUri));
+    }
+
+    /**
+     * @param sourceKey Source and version, the width and encoder settings are added to the cache key
+     * @param modified  Modification time of the source, a thumbnail file on disk at least as new is reused
+     */
+    @Nullable
+    private static File createVideoThumbnail(Context context, String name, String sourceKey, long modified,
+                                             Consumer<MediaMetadataRetriever> source) {
         try {
             // Generate filename for thumbnail
-            String videoName = videoFile.getName();
-            String thumbnailName = videoName.substring(0, videoName.lastIndexOf(".")) + "_thumb.jpg";
+            ImageEncoder encoder = thumbnailEncoder;
+            String thumbnailName = name + "_thumb" + encoder.getFormat().extension;
+            String key = sourceKey + "@" + THUMBNAIL_WIDTH + "/" + encoder.getConfigKey();
+
+            File cached = thumbnailCache.get(key);
+            if (cached != null && cached.exists()) {
+                thumbnailHits.incrementAndGet();
+                cached.setLastModified(System.currentTimeMillis());
+                return cached;
+            }
+
+            File directory = thumbnailDirectory(context, encoder);
+            if (directory == null) {
+                return null;
+            }
 
-            // Create directory
-            File directory = new File(context.getFilesDir(), THUMBNAIL_FOLDER);
+            File thumbnailFile = new File(directory, thumbnailName);
+            if (modified > 0 && thumbnailFile.lastModified() >= modified) {
+                // Created in an earlier session with the same encoder settings
+                thumbnailCache.put(key, thumbnailFile);
+                thumbnailHits.incrementAndGet();
+                thumbnailFile.setLastModified(System.currentTimeMillis());
+                return thumbnailFile;
+            }
+            thumbnailMisses.incrementAndGet();
+
+            if (!writeVideoThumbnail(context, source, encoder, thumbnailFile)) {
+                return null;
+            }
+            thumbnailCache.put(key, thumbnailFile);
+            trimThumbnailDirectory(directory);
+            Log.d(TAG, "Video thumbnail created: " + thumbnailFile.getAbsolutePath() + ", cache hits "
+                    + thumbnailHits.get() + "/" + (thumbnailHits.get() + thumbnailMisses.get()));
+            return thumbnailFile;
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error creating video thumbnail: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Thumbnail directory, emptied first when the thumbnail encoder settings differ from those
+     * its files were written with, so files reused across sessions match the current encoder
+     *
+     * @return The directory, or null if it can't be created
+     */
+    @Nullable
+    private static File thumbnailDirectory(Context context, ImageEncoder encoder) throws IOException {
+        File directory = new File(context.getFilesDir(), THUMBNAIL_FOLDER);
+        String configKey = encoder.getConfigKey();
+        synchronized (thumbnailDirectoryLock) {
             if (!directory.exists() && !directory.mkdirs()) {
                 Log.e(TAG, "Failed to create thumbnail directory: " + directory);
                 return null;
             }
+            if (configKey.equals(thumbnailDirectoryConfig)) {
+                return directory;
+            }
+            File configFile = new File(directory, THUMBNAIL_CONFIG_FILE);
+            String written = configFile.exists()
+                    ? new String(Files.readAllBytes(configFile.toPath()), StandardCharsets.UTF_8) : null;
+            if (!configKey.equals(written)) {
+                File[] files = directory.listFiles();
+                int deleted = 0;
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.delete()) {
+                            deleted++;
+                        }
+                    }
+                }
+                Files.write(configFile.toPath(), configKey.getBytes(StandardCharsets.UTF_8));
+                Log.d(TAG, "Thumbnail encoder changed from " + written + " to " + configKey
+                        + ", deleted " + deleted + " thumbnails");
+            }
+            thumbnailDirectoryConfig = configKey;
+            return directory;
+        }
+    }
 
-            File thumbnailFile = new File(directory, thumbnailName);
+    /**
+     * Delete the least recently used thumbnails until the directory fits THUMBNAIL_DIRECTORY_BYTES.
+     * Cache entries of deleted files are dropped on their next lookup.
+     */
+    private static void trimThumbnailDirectory(File directory) {
+        synchronized (thumbnailDirectoryLock) {
+            File[] files = directory.listFiles(file -> !THUMBNAIL_CONFIG_FILE.equals(file.getName()));
+            if (files == null) {
+                return;
+            }
+            long total = 0;
+            // Hits touch files outside the lock, so sort on a snapshot of the times
+            long[] modified = new long[files.length];
+            Integer[] order = new Integer[files.length];
+            for (int i = 0; i < files.length; i++) {
+                total += files[i].length();
+                modified[i] = files[i].lastModified();
+                order[i] = i;
+            }
+            if (total <= THUMBNAIL_DIRECTORY_BYTES) {
+                return;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+            int deleted = 0;
+            for (int i = 0; i < order.length && total > THUMBNAIL_DIRECTORY_BYTES; i++) {
+                File file = files[order[i]];
+                long length = file.length();
+                if (file.delete()) {
+                    total -= length;
+                    deleted++;
+                }
+            }
+            Log.d(TAG, "Trimmed " + deleted + " thumbnails, " + total + " bytes left");
+        }
+    }
+
+    /**
+     * Largest growth of the Java plus native heap measured while a thumbnail frame was held,
+     * sampled before the retriever opens the source and after the frame is extracted.
+     * Frames run on a shared pool, so concurrent work adds noise; compare across runs.
+     *
+     * @return Peak in bytes since start, 0 before the first thumbnail
+     */
+    public static long getThumbnailPeakMemory() {
+        return thumbnailPeakMemory.get();
+    }
+
+    /**
+     * Java heap in use plus native heap allocated, bitmap pixels live in the latter
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+
+    /**
+     * Extract a frame from the middle of a video and encode it into a file
+     *
+     * @param source  Sets the data source of the retriever
+     * @param encoder Encoder of the thumbnail
+     * @param output  File to write the thumbnail to
+     * @return false if no frame could be extracted
+     */
+    private static boolean writeVideoThumbnail(Context context, Consumer<MediaMetadataRetriever> source,
+                                               ImageEncoder encoder, File output) throws IOException {
+        long baseMemory = usedMemory();
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        long startNs = System.nanoTime();
 
-            // Create thumbnail
-            retriever = new MediaMetadataRetriever();
-            retriever.setDataSource(videoFile.getAbsolutePath());
+        try {
+            source.accept(retriever);
 
             // Try to get the duration to extract a frame from the middle
             String durationStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
@@ -292,44 +686,85 @@ public class MediaUtils {
                 }
             }
 
+            // Size the frame up front from the metadata, the decoder scales while extracting
+            // instead of producing a full resolution frame
+            int width = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            int height = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            int rotation = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+            if (rotation == 90 || rotation == 270) {
+                int swap = width;
+                width = height;
+                height = swap;
+            }
+
             // Extract frame from the middle of the video if possible
             long frameTime = duration > 0 ? duration / 2 * 1000 : 1000000;
-            Bitmap bitmap = retriever.getFrameAtTime(
-                    frameTime,
-                    MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            Bitmap frame;
+            if (width > 0 && height > 0) {
+                int targetWidth = Math.min(THUMBNAIL_WIDTH, width);
+                int targetHeight = Math.max(1, (int) ((long) targetWidth * height / width));
+                frame = retriever.getScaledFrameAtTime(frameTime,
+                        MediaMetadataRetriever.OPTION_CLOSEST_SYNC, targetWidth, targetHeight);
+            } else {
+                frame = scaleToThumbnail(context, retriever.getFrameAtTime(frameTime,
+                        MediaMetadataRetriever.OPTION_CLOSEST_SYNC));
+            }
 
-            if (bitmap == null) {
+            if (frame == null) {
                 Log.e(TAG, "Failed to extract video frame");
-                return null;
+                return false;
             }
-
-            // Resize thumbnail maintaining aspect ratio
-            int targetWidth = 512;
-            int targetHeight = (targetWidth * bitmap.getHeight()) / bitmap.getWidth();
-
-            bitmap = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
+            long frameMemory = usedMemory() - baseMemory;
+            thumbnailPeakMemory.accumulateAndGet(frameMemory, Math::max);
+            String frameInfo = frame.getWidth() + "x" + frame.getHeight() + " (" + frame.getAllocationByteCount()
+                    + " bytes, heap +" + frameMemory + ", peak " + thumbnailPeakMemory.get() + ")";
 
             // Save thumbnail
-            fos = new FileOutputStream(thumbnailFile);
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 85, fos);
-            bitmap.recycle(); // Explicitly recycle bitmap
+            try {
+                encoder.encode(frame, output);
+            } finally {
+                BitmapPool.getInstance(context).put(frame);
+            }
+            Log.d(TAG, "Thumbnail frame " + frameInfo + " from a " + width + "x" + height + " video in "
+                    + (System.nanoTime() - startNs) / 1_000_000 + "ms");
+            return true;
 
-            Log.d(TAG, "Video thumbnail created: " + thumbnailFile.getAbsolutePath());
-            return thumbnailFile;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                Log.e(TAG, "Error releasing MediaMetadataRetriever", e);
+            }
+        }
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Error creating video thumbnail: " + e.getMessage(), e);
+    /**
+     * Scale a full resolution frame into a pooled bitmap, for videos without size metadata
+     */
+    @Nullable
+    private static Bitmap scaleToThumbnail(Context context, @Nullable Bitmap frame) {
+        if (frame == null) {
             return null;
+        }
+        int targetWidth = Math.min(THUMBNAIL_WIDTH, frame.getWidth());
+        int targetHeight = Math.max(1, targetWidth * frame.getHeight() / frame.getWidth());
+
+        BitmapPool pool = BitmapPool.getInstance(context);
+        Bitmap bitmap = pool.get(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawBitmap(frame, null, new Rect(0, 0, targetWidth, targetHeight),
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+        pool.put(frame);
+        return bitmap;
+    }
 
-        } finally {
-            closeQuietly(fos);
-            if (retriever != null) {
-                try {
-                    retriever.release();
-                } catch (Exception e) {
-                    Log.e(TAG, "Error releasing MediaMetadataRetriever", e);
-                }
-            }
+    private static int parseInt(@Nullable String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 
@@ -385,17 +820,22 @@ public class MediaUtils {
         }
 
         boolean result = file.delete();
+        // The persisted copy is rewritten by the next save and pruned on load
+        savedSources.remove(file.getAbsolutePath());
 
         // If it's a video and we want to delete the thumbnail
         if (deleteThumbnail && file.getName().startsWith("VID_")) {
             String videoName = file.getName();
-            String thumbnailName = videoName.substring(0, videoName.lastIndexOf(".")) + "_thumb.jpg";
-            File thumbnailFile = new File(new File(file.getParentFile().getParentFile(), THUMBNAIL_FOLDER),
-                    thumbnailName);
-
-            if (thumbnailFile.exists()) {
-                boolean thumbResult = thumbnailFile.delete();
-                Log.d(TAG, "Thumbnail deleted: " + thumbResult + " - " + thumbnailFile.getAbsolutePath());
+            String baseName = videoName.substring(0, videoName.lastIndexOf(".")) + "_thumb";
+            // The thumbnail may have been written with any of the encoder formats
+            for (ImageEncoder.Format format : ImageEncoder.Format.values()) {
+                File thumbnailFile = new File(new File(file.getParentFile().getParentFile(), THUMBNAIL_FOLDER),
+                        baseName + format.extension);
+
+                if (thumbnailFile.exists()) {
+                    boolean thumbResult = thumbnailFile.delete();
+                    Log.d(TAG, "Thumbnail deleted: " + thumbResult + " - " + thumbnailFile.getAbsolutePath());
+                }
             }
         }
 
@@ -477,8 +917,9 @@ public class MediaUtils {
         }
 
         Uri uri = null;
-        OutputStream os = null;
-        InputStream is = null;
+        ParcelFileDescriptor pfd = null;
+        FileOutputStream os = null;
+        FileInputStream is = null;
 
         try {
             uri = resolver.insert(externalContentUri, contentValues);
@@ -487,19 +928,15 @@ public class MediaUtils {
                 return null;
             }
 
-            os = resolver.openOutputStream(uri);
-            if (os == null) {
+            pfd = resolver.openFileDescriptor(uri, "w");
+            if (pfd == null) {
                 Log.e(TAG, "Failed to open output stream for MediaStore");
                 return null;
             }
+            os = new FileOutputStream(pfd.getFileDescriptor());
 
-            is = new java.io.FileInputStream(sourceFile);
-
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int length;
-            while ((length = is.read(buffer)) > 0) {
-                os.write(buffer, 0, length);
-            }
+            is = new FileInputStream(sourceFile);
+            FileTransfer.copy(is.getChannel(), sourceFile.length(), os.getChannel(), null);
 
             // Clear pending flag for Android 10+
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
@@ -518,16 +955,20 @@ public class MediaUtils {
         } finally {
             closeQuietly(is);
             closeQuietly(os);
+            closeQuietly(pfd);
         }
     }
 
     /**
      * Get media from remote server
+     * Responses are kept in {@link MediaDiskCache}; a cached response is revalidated with
+     * a conditional request and served as is when the server answers 304.
      *
      * @param context Application context
      * @param url URL of the media on remote server
      * @param authToken Authentication token (if required)
-     * @return CompletableFuture with File path of downloaded media
+     * @return CompletableFuture with File path of downloaded media, or null if the media could not
+     * be fetched. Unexpected errors complete the future exceptionally.
      */
     @NonNull
     public static CompletableFuture<File> getMediaFromHost(
@@ -535,112 +976,175 @@ public class MediaUtils {
             @NonNull String url,
             @Nullable String authToken) {
 
-        return CompletableFuture.supplyAsync(() -> {
-            // Implementation of network request using HttpURLConnection or OkHttp
-            // This is a simplified example - in production, consider using a library like Retrofit
-
-            InputStream inputStream = null;
-            FileOutputStream outputStream = null;
-
+        CompletableFuture<File> future = new CompletableFuture<>();
+        // The cache lookup touches the disk, the fetch itself runs on the media client dispatcher
+        MediaScheduler.runIo(MediaScheduler.PRIORITY_NORMAL, () -> {
             try {
-                java.net.URL mediaUrl = new java.net.URL(url);
-                java.net.HttpURLConnection connection = (java.net.HttpURLConnection) mediaUrl.openConnection();
+                fetchMedia(context, url, authToken, future);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Invalid media url: " + url);
+                future.complete(null);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error fetching media: " + e.getMessage(), e);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
 
-                // Add authentication if provided
-                if (authToken != null && !authToken.isEmpty()) {
-                    connection.setRequestProperty("Authorization", "Bearer " + authToken);
-                }
+    /**
+     * Get several media from remote server at once, e.g. a page of thumbnails.
+     * Requests to the same host are multiplexed over one HTTP/2 connection.
+     *
+     * @param context Application context
+     * @param urls URLs of the media on remote server
+     * @param authToken Authentication token (if required)
+     * @return CompletableFuture with the files in the order of the urls, null for failed ones
+     */
+    @NonNull
+    public static CompletableFuture<List<File>> getMediaFromHost(
+            @NonNull Context context,
+            @NonNull List<String> urls,
+            @Nullable String authToken) {
 
-                connection.setDoInput(true);
-                connection.connect();
+        List<CompletableFuture<File>> futures = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            // One failed url must not fail the whole page
+            futures.add(getMediaFromHost(context, url, authToken).exceptionally(e -> null));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    List<File> files = new ArrayList<>(futures.size());
+                    for (CompletableFuture<File> future : futures) {
+                        files.add(future.join());
+                    }
+                    return files;
+                });
+    }
 
-                int responseCode = connection.getResponseCode();
-                if (responseCode != java.net.HttpURLConnection.HTTP_OK) {
-                    Log.e(TAG, "Server returned HTTP " + responseCode);
-                    return null;
-                }
+    private static void fetchMedia(Context context, String url, String authToken, CompletableFuture<File> future) {
+        MediaDiskCache cache = MediaDiskCache.getInstance(context);
+        MediaDiskCache.Entry cached = cache.get(url);
+        if (cached != null) {
+            // The cached copy may still be served, keep it until the request is answered
+            cache.pin(cached);
+        }
 
-                // Determine media type from content type
-                String contentType = connection.getContentType();
-                String mediaType = null;
-                String extension = null;
-
-                if (contentType != null) {
-                    if (contentType.startsWith("image/")) {
-                        mediaType = "image";
-                        extension = contentType.replace("image/", "");
-                        if (extension.equals("jpeg")) extension = "jpg";
-                    } else if (contentType.startsWith("video/")) {
-                        mediaType = "video";
-                        extension = contentType.replace("video/", "");
-                    }
-                }
+        Request.Builder builder = new Request.Builder().url(url);
+        // Add authentication if provided
+        if (authToken != null && !authToken.isEmpty()) {
+            builder.header("Authorization", "Bearer " + authToken);
+        }
+        if (cached != null) {
+            if (cached.etag != null) {
+                builder.header("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                builder.header("If-Modified-Since", cached.lastModified);
+            }
+        }
 
-                if (mediaType == null) {
-                    Log.e(TAG, "Unknown content type: " + contentType);
-                    return null;
+        RetrofitClient.getInstance().getMediaClient().newCall(builder.build()).enqueue(new Callback() {
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                try (Response r = response) {
+                    future.complete(saveMediaResponse(cache, cached, url, r));
+                } catch (IOException e) {
+                    fail(e);
+                } catch (Exception e) {
+                    // Anything else would be swallowed by the dispatcher and leave the future pending
+                    Log.e(TAG, "Error saving media: " + e.getMessage(), e);
+                    future.completeExceptionally(e);
+                } finally {
+                    release();
                 }
+            }
 
-                // Create appropriate folder
-                String folderName = "image".equals(mediaType) ? IMAGE_FOLDER : VIDEO_FOLDER;
-                File directory = new File(context.getFilesDir(), folderName);
-                if (!directory.exists() && !directory.mkdirs()) {
-                    Log.e(TAG, "Could not create directory: " + directory);
-                    return null;
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                try {
+                    fail(e);
+                } finally {
+                    release();
                 }
+            }
 
-                // Create filename based on the URL and timestamp
-                String fileName = "REMOTE_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault())
-                        .format(new Date()) + "." + extension;
-                File outputFile = new File(directory, fileName);
-
-                // Download the file
-                inputStream = connection.getInputStream();
-                outputStream = new FileOutputStream(outputFile);
-
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
+            private void release() {
+                if (cached != null) {
+                    cache.unpin(cached);
                 }
+            }
 
-                Log.d(TAG, "Downloaded media to: " + outputFile.getAbsolutePath());
-
-                // If it's a video, create a thumbnail
-                if ("video".equals(mediaType)) {
-                    createVideoThumbnail(context, outputFile);
+            private void fail(IOException e) {
+                if (cached != null) {
+                    // Offline, serve the cached copy without revalidation
+                    Log.d(TAG, "Serving cached media after error: " + e.getMessage());
+                    future.complete(cached.getFile());
+                } else {
+                    Log.e(TAG, "Error downloading media: " + e.getMessage(), e);
+                    future.complete(null);
                 }
-
-                return outputFile;
-
-            } catch (IOException e) {
-                Log.e(TAG, "Error downloading media: " + e.getMessage(), e);
-                return null;
-            } finally {
-                closeQuietly(inputStream);
-                closeQuietly(outputStream);
             }
-        }, executor);
+        });
     }
 
     /**
-     * Calculate optimal scaling factor for loading bitmaps efficiently
+     * Store a media response in the cache
+     *
+     * @return Cached file, or null if the response is not usable media
      */
-    private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        int height = options.outHeight;
-        int width = options.outWidth;
-        int inSampleSize = 1;
+    @Nullable
+    private static File saveMediaResponse(MediaDiskCache cache, MediaDiskCache.Entry cached,
+                                          String url, Response response) throws IOException {
+        if (response.code() == 304 && cached != null) {
+            cache.markRevalidated(cached, response.header("ETag"), response.header("Last-Modified"));
+            Log.d(TAG, "Cached media still valid: " + url);
+            return cached.getFile();
+        }
+        ResponseBody body = response.body();
+        if (response.code() != 200 || body == null) {
+            Log.e(TAG, "Server returned HTTP " + response.code());
+            return null;
+        }
 
-        if (height > reqHeight || width > reqWidth) {
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
+        // Determine media type from content type
+        String contentType = response.header("Content-Type");
+        String mediaType = null;
+        String extension = null;
 
-            while ((halfHeight / inSampleSize) >= reqHeight && (halfWidth / inSampleSize) >= reqWidth) {
-                inSampleSize *= 2;
+        if (contentType != null) {
+            if (contentType.startsWith("image/")) {
+                mediaType = "image";
+                extension = contentType.replace("image/", "");
+                if (extension.equals("jpeg")) extension = "jpg";
+            } else if (contentType.startsWith("video/")) {
+                mediaType = "video";
+                extension = contentType.replace("video/", "");
             }
         }
 
-        return inSampleSize;
+        if (mediaType == null) {
+            Log.e(TAG, "Unknown content type: " + contentType);
+            return null;
+        }
+
+        // Download the file next to the cache, then move it in
+        File tempFile = cache.newTempFile();
+        try {
+            try (BufferedSink sink = Okio.buffer(Okio.sink(tempFile))) {
+                sink.writeAll(body.source());
+            }
+            MediaDiskCache.Entry entry = cache.commit(url, tempFile, extension, contentType,
+                    response.header("ETag"), response.header("Last-Modified"));
+            File outputFile = entry.getFile();
+            Log.d(TAG, "Downloaded media to: " + outputFile.getAbsolutePath()
+                    + " over " + response.protocol());
+            return outputFile;
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
     }
 
     /**
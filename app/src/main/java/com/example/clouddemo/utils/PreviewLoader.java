@@ -0,0 +1,204 @@
+package com.example.clouddemo.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * PreviewLoader shows local media files in ImageViews without decoding on the main thread.
+ * Files are decoded on the CPU pool at the size of the view, kept in a byte-bounded
+ * LRU memory cache keyed by file and size, and bitmaps evicted from the cache go to
+ * the shared {@link BitmapPool} for later decodes when no view still shows them.
+ * A decoded bitmap is bound and cached together on the main thread, so it can't be
+ * evicted and pooled before its view holds it. Bitmaps larger than the whole cache are
+ * only bound, never cached or pooled.
+ */
+public class PreviewLoader {
+    private static final String TAG = "PreviewLoader";
+
+    private static PreviewLoader instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final int maxBytes;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final DisplayMetrics displayMetrics;
+    private final BitmapPool bitmapPool;
+
+    // Bitmap shown by each view and the key each view is waiting for, main thread only
+    private final Map<ImageView, Bitmap> displayed = new WeakHashMap<>();
+    private final Map<ImageView, String> requested = new WeakHashMap<>();
+
+    private long hits = 0;
+    private long misses = 0;
+
+    private PreviewLoader(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        // An eighth of the app heap for decoded previews
+        maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / 8;
+        displayMetrics = context.getResources().getDisplayMetrics();
+        bitmapPool = BitmapPool.getInstance(context);
+
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                // Also when replaced by a second decode of the same key
+                if (oldValue != newValue) {
+                    mainHandler.post(() -> recycleIfUnused(oldValue));
+                }
+            }
+        };
+    }
+
+    public static synchronized PreviewLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new PreviewLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Show a local image file in a view, must be called on the main thread
+     *
+     * @param file Image file
+     * @param view Target view, decoded at its size or the screen size if not laid out yet
+     */
+    public void load(@NonNull File file, @NonNull ImageView view) {
+        final int width = view.getWidth() > 0 ? view.getWidth() : displayMetrics.widthPixels;
+        final int height = view.getHeight() > 0 ? view.getHeight() : displayMetrics.heightPixels;
+        final String key = file.getAbsolutePath() + "#" + file.lastModified() + "@" + width + "x" + height;
+
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            hits++;
+            requested.remove(view);
+            bind(view, cached);
+            return;
+        }
+        misses++;
+        requested.put(view, key);
+
+        MediaScheduler.runCpu(MediaScheduler.PRIORITY_HIGH, () -> {
+            long startNs = System.nanoTime();
+            Bitmap bitmap = decode(file, width, height);
+            long decodeMs = (System.nanoTime() - startNs) / 1_000_000;
+            if (bitmap == null) {
+                return;
+            }
+            Log.d(TAG, "Decoded " + file.getName() + " to " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                    + " in " + decodeMs + "ms");
+
+            mainHandler.post(() -> {
+                // The view may have been asked to show something else meanwhile
+                if (key.equals(requested.get(view))) {
+                    requested.remove(view);
+                    bind(view, bitmap);
+                }
+                // After binding, evictions caused by this put see the bitmap displayed
+                if (bitmap.getAllocationByteCount() <= maxBytes) {
+                    memoryCache.put(key, bitmap);
+                } else {
+                    Log.d(TAG, "Not caching a " + bitmap.getAllocationByteCount() + " byte preview, the cache holds "
+                            + maxBytes);
+                }
+            });
+        });
+    }
+
+    /**
+     * Drop all cached previews, e.g. on low memory
+     */
+    public void clear() {
+        memoryCache.evictAll();
+    }
+
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    private void bind(ImageView view, Bitmap bitmap) {
+        // Only a bitmap assignment happens on the main thread, log it to watch frame time
+        long startNs = System.nanoTime();
+        view.setImageBitmap(bitmap);
+        Bitmap previous = displayed.put(view, bitmap);
+        if (previous != null && previous != bitmap) {
+            recycleIfUnused(previous);
+        }
+        Log.d(TAG, "Bound preview in " + (System.nanoTime() - startNs) / 1000 + "us, cache hit rate "
+                + Math.round(getHitRate() * 100) + "%");
+    }
+
+    private boolean isCached(Bitmap bitmap) {
+        for (Bitmap value : memoryCache.snapshot().values()) {
+            if (value == bitmap) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Give a bitmap to the pool once neither a view nor the cache holds it, main thread only.
+     * Bitmaps too large to cache are left to the garbage collector.
+     */
+    private void recycleIfUnused(Bitmap bitmap) {
+        if (displayed.containsValue(bitmap) || isCached(bitmap) || bitmap.getAllocationByteCount() > maxBytes) {
+            return;
+        }
+        bitmapPool.put(bitmap);
+    }
+
+    /**
+     * Decode a file subsampled to the smallest size still covering the target
+     */
+    @Nullable
+    private Bitmap decode(File file, int targetWidth, int targetHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.e(TAG, "Not a decodable image: " + file);
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= targetWidth
+                && options.outHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        int byteCount = (options.outWidth / sampleSize + 1) * (options.outHeight / sampleSize + 1) * 4;
+        options.inBitmap = bitmapPool.getReusable(byteCount);
+
+        try {
+            return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        } catch (IllegalArgumentException e) {
+            // The reused bitmap did not fit after all, decode into a new one
+            bitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        }
+    }
+}
@@ -1,13 +1,7 @@
 package com.example.clouddemo.utils;
 
-import android.util.Log;
-
-import com.example.clouddemo.model.ResponseData;
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-
 import java.util.Map;
+import java.util.TreeMap;
 
 public class Utils {
     // Format token with prefix if needed
@@ -19,10 +13,10 @@ public class Utils {
         return token;
     }
 
-    // convert config map to config url
+    // convert config map to config url, keys sorted so equal option sets give equal urls
     public static String getConfigUrl(Map<String, Object> config) {
         StringBuilder configUrl = new StringBuilder();
-        for (Map.Entry<String, Object> entry : config.entrySet()) {
+        for (Map.Entry<String, Object> entry : new TreeMap<>(config).entrySet()) {
             if (configUrl.length() > 0) {
                 configUrl.append("&");
             }
@@ -31,17 +25,4 @@ public class Utils {
         return configUrl.toString();
     }
 
-    // get data filed data body
-    public static String getDataBody(ResponseData<Object> responseData, String field) {
-        try {
-            Gson gson = new Gson();
-            JsonElement jsonElement = gson.toJsonTree(responseData.getData());
-            JsonObject dataObject = jsonElement.getAsJsonObject();
-
-            return dataObject.get(field).getAsString();
-        } catch (Exception e) {
-            Log.e("GetDataBody", "Error parsing response data");
-            return "";
-        }
-    }
 }
@@ -0,0 +1,503 @@
+package com.example.clouddemo.utils;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * VideoTranscoder re-encodes a video to a smaller H.264 file before upload.
+ * Decoding, scaling and encoding stay on the hardware codecs: the decoder renders into
+ * a GPU surface which is drawn onto the encoder's input surface ({@link TranscodeSurface}),
+ * and the muxer writes samples as they come out, so memory use does not depend on the
+ * length of the video. The audio track is copied as is.
+ */
+public class VideoTranscoder {
+    private static final String TAG = "VideoTranscoder";
+    private static final String OUTPUT_MIME = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final long CODEC_TIMEOUT_US = 10_000;
+    private static final int I_FRAME_INTERVAL_S = 1;
+    private static final int DEFAULT_FRAME_RATE = 30;
+    private static final int AUDIO_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Target resolution and bitrate
+     */
+    public enum Preset {
+        P480(480, 1_500_000, 30),
+        P720(720, 4_000_000, 30),
+        P1080(1080, 8_000_000, 30);
+
+        // Limit of the shorter side, so portrait and landscape videos get the same quality
+        final int maxShortSide;
+        final int bitrate;
+        final int maxFrameRate;
+
+        Preset(int maxShortSide, int bitrate, int maxFrameRate) {
+            this.maxShortSide = maxShortSide;
+            this.bitrate = bitrate;
+            this.maxFrameRate = maxFrameRate;
+        }
+    }
+
+    /**
+     * Receives transcoding progress
+     */
+    public interface ProgressListener {
+        void onProgress(int progress);
+    }
+
+    private final Preset preset;
+    private volatile boolean cancelled = false;
+
+    public VideoTranscoder(@NonNull Preset preset) {
+        this.preset = preset;
+    }
+
+    /**
+     * Stop a running transcode, {@link #transcode} then throws and deletes its output
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Opens the source video in an extractor
+     */
+    private interface Source {
+        void open(MediaExtractor extractor) throws IOException;
+    }
+
+    /**
+     * Transcode a video (blocking)
+     *
+     * @param input    Source video
+     * @param output   Destination mp4 file
+     * @param listener Progress listener, called on the transcoding thread
+     * @return The output file, or the input file if it is already within the preset
+     * @throws IOException if the video can't be transcoded or the transcode was canceled
+     */
+    @NonNull
+    public File transcode(@NonNull File input, @NonNull File output,
+                          @Nullable ProgressListener listener) throws IOException {
+        boolean transcoded = transcode(extractor -> extractor.setDataSource(input.getAbsolutePath()),
+                input.length(), output, listener);
+        return transcoded ? output : input;
+    }
+
+    /**
+     * Transcode a video read straight from a content Uri, without a local copy of the source (blocking)
+     *
+     * @param context  Context to resolve the Uri
+     * @param input    Source video
+     * @param output   Destination mp4 file
+     * @param listener Progress listener, called on the transcoding thread
+     * @return The output file, or null if the source is already within the preset
+     * @throws IOException if the video can't be transcoded or the transcode was canceled
+     */
+    @Nullable
+    public File transcode(@NonNull Context context, @NonNull Uri input, @NonNull File output,
+                          @Nullable ProgressListener listener) throws IOException {
+        final Context appContext = context.getApplicationContext();
+        long length = -1;
+        try (ParcelFileDescriptor pfd = appContext.getContentResolver().openFileDescriptor(input, "r")) {
+            if (pfd != null) {
+                length = pfd.getStatSize();
+            }
+        }
+        boolean transcoded = transcode(extractor -> extractor.setDataSource(appContext, input, null),
+                length, output, listener);
+        return transcoded ? output : null;
+    }
+
+    /**
+     * @return false if the source is already within the preset and nothing was written
+     */
+    private boolean transcode(Source source, long sourceLength, File output,
+                              ProgressListener listener) throws IOException {
+        long startNs = System.nanoTime();
+        MediaExtractor videoExtractor = new MediaExtractor();
+        MediaExtractor audioExtractor = null;
+        MediaCodec decoder = null;
+        MediaCodec encoder = null;
+        TranscodeSurface surface = null;
+        MediaMuxer muxer = null;
+        boolean success = false;
+
+        try {
+            source.open(videoExtractor);
+            int videoTrack = findTrack(videoExtractor, "video/");
+            if (videoTrack < 0) {
+                throw new IOException("No video track in the source");
+            }
+            MediaFormat inputFormat = videoExtractor.getTrackFormat(videoTrack);
+            int sourceWidth = inputFormat.getInteger(MediaFormat.KEY_WIDTH);
+            int sourceHeight = inputFormat.getInteger(MediaFormat.KEY_HEIGHT);
+            long durationUs = inputFormat.containsKey(MediaFormat.KEY_DURATION)
+                    ? inputFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+
+            if (isWithinPreset(sourceLength, sourceWidth, sourceHeight, durationUs)) {
+                Log.d(TAG, "Video already within preset " + preset + ", not transcoding");
+                return false;
+            }
+
+            // Encode in the stored orientation and let the player rotate, like the camera does
+            int rotation = inputFormat.containsKey(MediaFormat.KEY_ROTATION)
+                    ? inputFormat.getInteger(MediaFormat.KEY_ROTATION) : 0;
+            inputFormat.setInteger(MediaFormat.KEY_ROTATION, 0);
+
+            float scale = Math.min(1f, (float) preset.maxShortSide / Math.min(sourceWidth, sourceHeight));
+            int width = align(sourceWidth * scale);
+            int height = align(sourceHeight * scale);
+            int sourceFrameRate = inputFormat.containsKey(MediaFormat.KEY_FRAME_RATE)
+                    ? inputFormat.getNumber(MediaFormat.KEY_FRAME_RATE).intValue() : DEFAULT_FRAME_RATE;
+            int frameRate = Math.min(sourceFrameRate > 0 ? sourceFrameRate : DEFAULT_FRAME_RATE, preset.maxFrameRate);
+
+            MediaFormat outputFormat = MediaFormat.createVideoFormat(OUTPUT_MIME, width, height);
+            outputFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                    MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            outputFormat.setInteger(MediaFormat.KEY_BIT_RATE, preset.bitrate);
+            outputFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+            outputFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_S);
+
+            encoder = MediaCodec.createEncoderByType(OUTPUT_MIME);
+            encoder.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            surface = new TranscodeSurface(encoder.createInputSurface(), width, height);
+            encoder.start();
+
+            decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+            decoder.configure(inputFormat, surface.getDecoderSurface(), null, 0);
+            decoder.start();
+
+            audioExtractor = new MediaExtractor();
+            source.open(audioExtractor);
+            int audioTrack = findTrack(audioExtractor, "audio/");
+            MediaFormat audioFormat = null;
+            if (audioTrack >= 0) {
+                audioExtractor.selectTrack(audioTrack);
+                audioFormat = audioExtractor.getTrackFormat(audioTrack);
+            }
+
+            File parent = output.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Could not create directory: " + parent);
+            }
+            muxer = new MediaMuxer(output.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(rotation);
+
+            videoExtractor.selectTrack(videoTrack);
+            Log.d(TAG, "Transcoding " + sourceWidth + "x" + sourceHeight + "@" + sourceFrameRate + " to "
+                    + width + "x" + height + "@" + frameRate + ", " + preset.bitrate / 1000 + " kbps");
+
+            new Pipeline(videoExtractor, decoder, encoder, surface, muxer, audioExtractor, audioFormat,
+                    durationUs, 1_000_000L / frameRate, listener).run();
+            muxer.stop();
+
+            success = true;
+            long elapsedMs = (System.nanoTime() - startNs) / 1_000_000;
+            Log.d(TAG, "Transcoded " + sourceLength + " -> " + output.length() + " bytes in " + elapsedMs + "ms");
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transcode interrupted");
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // MediaCodec reports codec failures as runtime exceptions
+            throw new IOException("Transcode failed: " + e.getMessage(), e);
+        } finally {
+            release(decoder);
+            release(encoder);
+            if (surface != null) {
+                surface.release();
+            }
+            if (muxer != null) {
+                try {
+                    muxer.release();
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, "Error releasing muxer: " + e.getMessage());
+                }
+            }
+            videoExtractor.release();
+            if (audioExtractor != null) {
+                audioExtractor.release();
+            }
+            if (!success) {
+                output.delete();
+            }
+        }
+    }
+
+    /**
+     * Decode, encode and mux loop
+     */
+    private class Pipeline {
+        final MediaExtractor videoExtractor;
+        final MediaCodec decoder;
+        final MediaCodec encoder;
+        final TranscodeSurface surface;
+        final MediaMuxer muxer;
+        final MediaExtractor audioExtractor;
+        final MediaFormat audioFormat;
+        final long durationUs;
+        final long minFrameIntervalUs;
+        final ProgressListener listener;
+
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        ByteBuffer audioBuffer;
+        int muxerVideoTrack = -1;
+        int muxerAudioTrack = -1;
+        boolean muxerStarted = false;
+        boolean audioDone;
+        long lastRenderedUs = Long.MIN_VALUE;
+        int lastProgress = -1;
+
+        Pipeline(MediaExtractor videoExtractor, MediaCodec decoder, MediaCodec encoder, TranscodeSurface surface,
+                 MediaMuxer muxer, MediaExtractor audioExtractor, MediaFormat audioFormat, long durationUs,
+                 long frameIntervalUs, ProgressListener listener) {
+            this.videoExtractor = videoExtractor;
+            this.decoder = decoder;
+            this.encoder = encoder;
+            this.surface = surface;
+            this.muxer = muxer;
+            this.audioExtractor = audioExtractor;
+            this.audioFormat = audioFormat;
+            this.durationUs = durationUs;
+            // Slightly below the interval so timestamp jitter does not drop frames at the target rate
+            this.minFrameIntervalUs = frameIntervalUs * 9 / 10;
+            this.listener = listener;
+            this.audioDone = audioFormat == null;
+        }
+
+        void run() throws IOException, InterruptedException {
+            boolean inputDone = false;
+            boolean decoderDone = false;
+            boolean encoderDone = false;
+
+            while (!encoderDone) {
+                if (cancelled) {
+                    throw new InterruptedIOException("Transcode canceled");
+                }
+
+                if (!inputDone) {
+                    inputDone = feedDecoder();
+                }
+
+                // Drain the encoder first, then move one decoded frame to it
+                boolean moreOutput = true;
+                while (moreOutput && !encoderDone) {
+                    // Once the decoder is done only the encoder has work left, wait for it
+                    int encoderStatus = encoder.dequeueOutputBuffer(info, decoderDone ? CODEC_TIMEOUT_US : 0);
+                    if (encoderStatus >= 0) {
+                        encoderDone = writeEncoded(encoderStatus);
+                    } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                        startMuxer(encoder.getOutputFormat());
+                    } else if (decoderDone) {
+                        moreOutput = false;
+                    } else {
+                        int decoderStatus = decoder.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                        if (decoderStatus >= 0) {
+                            decoderDone = renderDecoded(decoderStatus);
+                        } else if (decoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                            moreOutput = false;
+                        }
+                    }
+                }
+            }
+
+            // Audio left after the last video frame
+            copyAudioUntil(Long.MAX_VALUE);
+        }
+
+        /**
+         * Queue one compressed sample into the decoder
+         *
+         * @return true once the end of stream was queued
+         */
+        private boolean feedDecoder() {
+            int index = decoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+            if (index < 0) {
+                return false;
+            }
+            ByteBuffer buffer = decoder.getInputBuffer(index);
+            int size = buffer != null ? videoExtractor.readSampleData(buffer, 0) : -1;
+            if (size < 0) {
+                decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                return true;
+            }
+            decoder.queueInputBuffer(index, 0, size, videoExtractor.getSampleTime(), 0);
+            videoExtractor.advance();
+            return false;
+        }
+
+        /**
+         * Draw one decoded frame onto the encoder surface, dropping frames above the target rate
+         *
+         * @return true at the end of stream
+         */
+        private boolean renderDecoded(int index) throws InterruptedException {
+            boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            long presentationUs = info.presentationTimeUs;
+            boolean render = info.size > 0
+                    && (lastRenderedUs == Long.MIN_VALUE || presentationUs - lastRenderedUs >= minFrameIntervalUs);
+            decoder.releaseOutputBuffer(index, render);
+            if (render) {
+                surface.awaitFrame();
+                surface.drawFrame(presentationUs * 1000);
+                lastRenderedUs = presentationUs;
+                reportProgress(presentationUs);
+            }
+            if (endOfStream) {
+                encoder.signalEndOfInputStream();
+            }
+            return endOfStream;
+        }
+
+        /**
+         * Write one encoded buffer to the muxer
+         *
+         * @return true at the end of stream
+         */
+        private boolean writeEncoded(int index) {
+            ByteBuffer buffer = encoder.getOutputBuffer(index);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                // Already part of the output format given to the muxer
+                info.size = 0;
+            }
+            if (info.size > 0 && buffer != null) {
+                if (!muxerStarted) {
+                    throw new IllegalStateException("Encoder produced data before its format");
+                }
+                buffer.position(info.offset).limit(info.offset + info.size);
+                muxer.writeSampleData(muxerVideoTrack, buffer, info);
+                // Keep audio interleaved with video
+                copyAudioUntil(info.presentationTimeUs);
+            }
+            boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            encoder.releaseOutputBuffer(index, false);
+            return endOfStream;
+        }
+
+        private void startMuxer(MediaFormat videoFormat) {
+            if (muxerStarted) {
+                throw new IllegalStateException("Encoder format changed twice");
+            }
+            muxerVideoTrack = muxer.addTrack(videoFormat);
+            if (audioFormat != null) {
+                try {
+                    muxerAudioTrack = muxer.addTrack(audioFormat);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    Log.e(TAG, "Audio format not supported by the muxer, dropping audio: " + e.getMessage());
+                    audioDone = true;
+                }
+            }
+            muxer.start();
+            muxerStarted = true;
+        }
+
+        /**
+         * Copy audio samples up to a timestamp without decoding them
+         */
+        private void copyAudioUntil(long timeUs) {
+            if (audioDone || !muxerStarted) {
+                return;
+            }
+            if (audioBuffer == null) {
+                int size = audioFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                        ? audioFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : AUDIO_BUFFER_SIZE;
+                audioBuffer = ByteBuffer.allocateDirect(size);
+            }
+            MediaCodec.BufferInfo audioInfo = new MediaCodec.BufferInfo();
+            while (true) {
+                long sampleTime = audioExtractor.getSampleTime();
+                if (sampleTime < 0) {
+                    audioDone = true;
+                    return;
+                }
+                if (sampleTime > timeUs) {
+                    return;
+                }
+                audioBuffer.clear();
+                int size = audioExtractor.readSampleData(audioBuffer, 0);
+                if (size < 0) {
+                    audioDone = true;
+                    return;
+                }
+                int flags = (audioExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                        ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                audioInfo.set(0, size, sampleTime, flags);
+                muxer.writeSampleData(muxerAudioTrack, audioBuffer, audioInfo);
+                audioExtractor.advance();
+            }
+        }
+
+        private void reportProgress(long presentationUs) {
+            if (listener == null || durationUs <= 0) {
+                return;
+            }
+            int progress = (int) Math.min(100, presentationUs * 100 / durationUs);
+            if (progress != lastProgress) {
+                lastProgress = progress;
+                listener.onProgress(progress);
+            }
+        }
+    }
+
+    /**
+     * Whether the source is already small enough that transcoding would not pay off
+     */
+    private boolean isWithinPreset(long sourceLength, int width, int height, long durationUs) {
+        if (Math.min(width, height) > preset.maxShortSide) {
+            return false;
+        }
+        if (durationUs <= 0 || sourceLength < 0) {
+            return true;
+        }
+        long bitrate = sourceLength * 8 * 1_000_000 / durationUs;
+        return bitrate <= preset.bitrate * 5L / 4;
+    }
+
+    private static int findTrack(MediaExtractor extractor, String mimePrefix) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith(mimePrefix)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Round a dimension to a multiple of 16, which every hardware encoder accepts
+     */
+    private static int align(float size) {
+        return Math.max(16, Math.round(size / 16f) * 16);
+    }
+
+    private static void release(MediaCodec codec) {
+        if (codec == null) {
+            return;
+        }
+        try {
+            codec.stop();
+        } catch (IllegalStateException e) {
+            // Not started or already failed
+        }
+        codec.release();
+    }
+}
@@ -0,0 +1,361 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.cloudinary.android.signed.Signature;
+import com.example.clouddemo.api.RetrofitClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+/**
+ * ChunkedUploader uploads large files with Cloudinary's chunked upload protocol
+ * (X-Unique-Upload-Id + Content-Range). Every acknowledged chunk is written to the
+ * {@link UploadJournal}, so an interrupted upload resumes from the last acknowledged
+ * chunk instead of restarting from zero.
+ */
+public class ChunkedUploader {
+    private static final String TAG = "ChunkedUploader";
+
+    // Cloudinary requires every chunk except the last to be at least 5 MB
+    public static final int MIN_CHUNK_SIZE = 5 * 1024 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 6 * 1024 * 1024;
+    private static final int MAX_CHUNK_RETRIES = 3;
+    private static final long RETRY_BACKOFF_MS = 1000;
+    // A chunk is signed again when its signature would expire within this time, retries included
+    private static final long CHUNK_SIGNATURE_VALIDITY_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    private final OkHttpClient client;
+    private final SignatureCache signatureCache;
+    private final UploadJournal journal;
+    private final String uploadBaseUrl;
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    // Uploads running in this process, only these can be canceled
+    private final Set<String> active = new HashSet<>();
+    private final Set<String> cancelled = new HashSet<>();
+
+    /**
+     * @param client         Http client used for the chunk requests
+     * @param signatureCache Cache used to sign the upload options
+     * @param journal        Journal storing per-upload progress
+     * @param uploadBaseUrl  Upload api base, e.g. https://api.cloudinary.com/v1_1/cloud_name
+     */
+    public ChunkedUploader(@NonNull OkHttpClient client, @NonNull SignatureCache signatureCache,
+                           @NonNull UploadJournal journal, @NonNull String uploadBaseUrl) {
+        this.client = client;
+        this.signatureCache = signatureCache;
+        this.journal = journal;
+        this.uploadBaseUrl = uploadBaseUrl;
+    }
+
+    /**
+     * Set the chunk size used for new uploads, values below 5 MB are raised to 5 MB
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(chunkSize, MIN_CHUNK_SIZE);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Create and persist a new chunked upload
+     *
+     * @param file         File to upload
+     * @param resourceType Type of resource (image, video, raw)
+     * @param options      Upload options, sent as form parameters of every chunk
+     * @param uploadId     Id chosen by the caller, or null for a random one
+     * @return Journal entry of the new upload
+     */
+    @NonNull
+    public UploadJournal.Entry create(@NonNull File file, @NonNull String resourceType,
+                                      @NonNull Map<String, Object> options, @Nullable String uploadId)
+            throws IOException {
+        UploadJournal.Entry entry = new UploadJournal.Entry();
+        entry.uploadId = uploadId != null ? uploadId : UUID.randomUUID().toString();
+        entry.filePath = file.getAbsolutePath();
+        entry.fileLength = file.length();
+        entry.lastModified = file.lastModified();
+        entry.chunkSize = chunkSize;
+        entry.resourceType = resourceType;
+        entry.options = new HashMap<>();
+        for (Map.Entry<String, Object> option : options.entrySet()) {
+            entry.options.put(option.getKey(), String.valueOf(option.getValue()));
+        }
+        entry.nextOffset = 0;
+        journal.save(entry);
+        return entry;
+    }
+
+    /**
+     * Upload the remaining chunks of an upload (blocking)
+     *
+     * @param entry    Journal entry of the upload
+     * @param callback Callback for upload progress and result
+     */
+    public void upload(@NonNull UploadJournal.Entry entry,
+                       @NonNull CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback) {
+        Signature signature = prepare(entry, callback);
+        if (signature == null) {
+            return;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(entry.filePath, "r");
+             FileChannel channel = raf.getChannel()) {
+            int chunkCount = entry.getChunkCount();
+            for (int index = 0; index < chunkCount; index++) {
+                if (entry.isChunkAcknowledged(index)) {
+                    continue;
+                }
+                if (isCancelled(entry.uploadId)) {
+                    Log.d(TAG, "Upload canceled: " + entry.uploadId);
+                    callback.onError("Upload canceled");
+                    return;
+                }
+
+                long start = (long) index * entry.chunkSize;
+                int length = (int) Math.min(entry.chunkSize, entry.fileLength - start);
+                Map<String, Object> result = uploadChunk(entry, signature, channel, start, length);
+                if (index == chunkCount - 1) {
+                    entry.result = result;
+                }
+                entry.acknowledge(index);
+                journal.save(entry);
+                callback.onProgress((int) (entry.getAcknowledgedBytes() * 100 / entry.fileLength));
+
+                if (index == chunkCount - 1) {
+                    finish(entry, result, callback);
+                    return;
+                }
+            }
+            // Every chunk was acknowledged before the last run stopped, e.g. killed before finish
+            finishAcknowledged(entry, callback);
+        } catch (Exception e) {
+            // The journal keeps the last acknowledged offset, the upload can be resumed later
+            Log.e(TAG, "Chunked upload interrupted at " + entry.nextOffset + ": " + e.getMessage());
+            callback.onError("Upload interrupted: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Check the file and sign the upload options
+     *
+     * @return Signature, or null after reporting the error to the callback
+     */
+    Signature prepare(UploadJournal.Entry entry, CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback) {
+        if (!entry.matchesFile()) {
+            Log.e(TAG, "File changed or missing, dropping upload " + entry.uploadId);
+            journal.remove(entry.uploadId);
+            callback.onError("File changed or missing: " + entry.filePath);
+            return null;
+        }
+
+        Signature signature = signatureCache.get(new HashMap<String, Object>(entry.options),
+                CHUNK_SIGNATURE_VALIDITY_MS);
+        if (signature == null) {
+            callback.onError("Failed to get upload signature");
+        }
+        return signature;
+    }
+
+    /**
+     * The signature to send a chunk with, signed again when it is close to expiring.
+     * Long uploads and resumed ones outlive the signature they started with.
+     */
+    Signature refresh(UploadJournal.Entry entry, Signature signature) throws IOException {
+        if (SignatureCache.expiresAt(signature) - System.currentTimeMillis() > CHUNK_SIGNATURE_VALIDITY_MS) {
+            return signature;
+        }
+        Signature fresh = signatureCache.get(new HashMap<String, Object>(entry.options), CHUNK_SIGNATURE_VALIDITY_MS);
+        if (fresh == null) {
+            throw new IOException("Failed to refresh upload signature");
+        }
+        Log.d(TAG, "Signed " + entry.uploadId + " again, timestamp " + fresh.getTimestamp());
+        return fresh;
+    }
+
+    void finish(UploadJournal.Entry entry, Map<String, Object> result,
+                CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback) {
+        journal.remove(entry.uploadId);
+        Log.d(TAG, "Chunked upload finished: " + entry.uploadId);
+        callback.onSuccess(result);
+    }
+
+    /**
+     * Finish an upload whose chunks were all acknowledged by an earlier run,
+     * with the final response kept in the journal
+     */
+    void finishAcknowledged(UploadJournal.Entry entry,
+                            CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback) {
+        if (entry.result != null) {
+            finish(entry, entry.result, callback);
+            return;
+        }
+        journal.remove(entry.uploadId);
+        Log.e(TAG, "Upload " + entry.uploadId + " was acknowledged without a stored result");
+        callback.onError("Upload finished without a result: " + entry.uploadId);
+    }
+
+    UploadJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Mark an upload as running before it is scheduled
+     *
+     * @return false if it is already running, e.g. resumed twice
+     */
+    synchronized boolean begin(@NonNull String uploadId) {
+        return active.add(uploadId);
+    }
+
+    /**
+     * Forget a running upload and its cancel flag once upload() returned
+     */
+    synchronized void end(@NonNull String uploadId) {
+        active.remove(uploadId);
+        cancelled.remove(uploadId);
+    }
+
+    synchronized boolean isCancelled(String uploadId) {
+        return cancelled.contains(uploadId);
+    }
+
+    /**
+     * Stop an upload after its current chunk, its journal entry is kept.
+     * Ids of other uploads, e.g. MediaManager request ids, are ignored.
+     */
+    public synchronized void cancel(@NonNull String uploadId) {
+        if (active.contains(uploadId)) {
+            cancelled.add(uploadId);
+        }
+    }
+
+    /**
+     * Stop every running upload after its current chunk, journal entries are kept
+     */
+    public synchronized void cancelAll() {
+        cancelled.addAll(active);
+    }
+
+    /**
+     * Body of one chunk, streamed from the file with positional reads each time it is written.
+     * No chunk is held in memory, and retries read the same range again.
+     */
+    static RequestBody chunkBody(final FileChannel channel, final long position, final int length) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return OCTET_STREAM;
+            }
+
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(@NonNull BufferedSink sink) throws IOException {
+                long written = 0;
+                while (written < length) {
+                    long transferred = channel.transferTo(position + written, length - written, sink);
+                    if (transferred <= 0) {
+                        throw new IOException("Unexpected end of file at " + (position + written));
+                    }
+                    written += transferred;
+                }
+            }
+        };
+    }
+
+    /**
+     * Send one chunk, retrying with backoff
+     *
+     * @param signature Signature of the upload, replaced for this chunk if it is about to expire
+     * @param channel   File to read the chunk from, must stay open until this returns
+     * @param start     Offset of the chunk
+     * @param length    Length of the chunk
+     * @return Parsed response of the chunk request
+     */
+    Map<String, Object> uploadChunk(UploadJournal.Entry entry, Signature signature, FileChannel channel,
+                                    long start, int length) throws IOException, InterruptedException {
+        long end = start + length - 1;
+        signature = refresh(entry, signature);
+
+        MultipartBody.Builder body = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("file", new File(entry.filePath).getName(),
+                        chunkBody(channel, start, length))
+                .addFormDataPart("api_key", signature.getApiKey())
+                .addFormDataPart("timestamp", String.valueOf(signature.getTimestamp()))
+                .addFormDataPart("signature", signature.getSignature());
+        for (Map.Entry<String, String> option : entry.options.entrySet()) {
+            if (!"resource_type".equals(option.getKey())) {
+                body.addFormDataPart(option.getKey(), option.getValue());
+            }
+        }
+
+        Request request = new Request.Builder()
+                .url(uploadBaseUrl + "/" + entry.resourceType + "/upload")
+                .header("X-Unique-Upload-Id", entry.uploadId)
+                .header("Content-Range", "bytes " + start + "-" + end + "/" + entry.fileLength)
+                .post(body.build())
+                .build();
+
+        IOException lastError = null;
+        for (int attempt = 0; attempt <= MAX_CHUNK_RETRIES; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(RETRY_BACKOFF_MS << (attempt - 1));
+                Log.d(TAG, "Retrying chunk " + start + "-" + end + ", attempt " + attempt);
+            }
+            try (Response response = client.newCall(request).execute()) {
+                ResponseBody responseBody = response.body();
+                String json = responseBody != null ? responseBody.string() : "";
+                if (response.isSuccessful()) {
+                    return parseResult(json);
+                }
+                lastError = new IOException("HTTP " + response.code() + ": " + json);
+                // Client errors other than timeouts/throttling won't succeed on retry
+                if (response.code() >= 400 && response.code() < 500
+                        && response.code() != 408 && response.code() != 429) {
+                    break;
+                }
+            } catch (IOException e) {
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parseResult(String json) {
+        Map<String, Object> result = null;
+        if (!json.isEmpty()) {
+            result = RetrofitClient.getInstance().getGson().fromJson(json, Map.class);
+        }
+        return result != null ? result : new HashMap<>();
+    }
+}
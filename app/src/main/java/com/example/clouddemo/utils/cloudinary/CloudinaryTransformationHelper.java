@@ -2,15 +2,25 @@ package com.example.clouddemo.utils.cloudinary;
 
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Helper class for creating Cloudinary transformation parameters
  * Makes it easy to build complex transformations for images and videos
+ * Use {@link #then()} to start a new step of a chained transformation
  */
 public class CloudinaryTransformationHelper {
+    // Finished steps of the chain
+    private final List<CompiledTransformation> steps = new ArrayList<>();
+    // Parameters of the current step
     private final Map<String, String> transformations;
+    // Compiled form of the current parameters, dropped on every change
+    private CompiledTransformation compiled;
+    // Parameters the compiled form was built from, catches changes made through getTransformations()
+    private Map<String, String> compiledFrom;
 
     /**
      * Create a new transformation helper with empty transformations
@@ -20,14 +30,62 @@ public class CloudinaryTransformationHelper {
     }
 
     /**
-     * Get the map of transformations
-     * @return Map of transformation key-value pairs
+     * Get the map of transformations of the current step
+     * @return Map of transformation key-value pairs, changes to it are picked up by {@link #compile()}
      */
     @NonNull
     public Map<String, String> getTransformations() {
         return transformations;
     }
 
+    /**
+     * Compile all steps into their canonical URL form
+     * The result is immutable and cached until the next change to this helper
+     * @return Compiled transformation
+     */
+    @NonNull
+    public CompiledTransformation compile() {
+        if (compiled == null || !transformations.equals(compiledFrom)) {
+            List<CompiledTransformation> chain = new ArrayList<>(steps);
+            chain.add(CompiledTransformation.of(transformations));
+            compiled = CompiledTransformation.chain(chain);
+            compiledFrom = new HashMap<>(transformations);
+        }
+        return compiled;
+    }
+
+    /**
+     * Finish the current step, following calls add parameters to a new step
+     * @return This helper for chaining
+     */
+    public CloudinaryTransformationHelper then() {
+        if (!transformations.isEmpty()) {
+            steps.add(CompiledTransformation.of(transformations));
+            transformations.clear();
+            compiled = null;
+        }
+        return this;
+    }
+
+    /**
+     * Finish the current step and append an already compiled step or chain
+     * @param step Compiled transformation, e.g. shared between several helpers
+     * @return This helper for chaining
+     */
+    public CloudinaryTransformationHelper then(@NonNull CompiledTransformation step) {
+        then();
+        if (!step.isEmpty()) {
+            steps.add(step);
+            compiled = null;
+        }
+        return this;
+    }
+
+    private void put(String key, String value) {
+        transformations.put(key, value);
+        compiled = null;
+    }
+
     /**
      * Add a custom transformation parameter
      * @param key Transformation key
@@ -35,7 +93,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper addTransformation(String key, String value) {
-        transformations.put(key, value);
+        put(key, value);
         return this;
     }
 
@@ -46,8 +104,8 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper resize(int width, int height) {
-        transformations.put("w", String.valueOf(width));
-        transformations.put("h", String.valueOf(height));
+        put("w", String.valueOf(width));
+        put("h", String.valueOf(height));
         return this;
     }
 
@@ -57,7 +115,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper width(int width) {
-        transformations.put("w", String.valueOf(width));
+        put("w", String.valueOf(width));
         return this;
     }
 
@@ -67,7 +125,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper height(int height) {
-        transformations.put("h", String.valueOf(height));
+        put("h", String.valueOf(height));
         return this;
     }
 
@@ -77,7 +135,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper crop(String cropMode) {
-        transformations.put("c", cropMode);
+        put("c", cropMode);
         return this;
     }
 
@@ -87,7 +145,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper quality(int quality) {
-        transformations.put("q", String.valueOf(quality));
+        put("q", String.valueOf(quality));
         return this;
     }
 
@@ -97,7 +155,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper format(String format) {
-        transformations.put("f", format);
+        put("f", format);
         return this;
     }
 
@@ -107,7 +165,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper radius(String radius) {
-        transformations.put("r", radius);
+        put("r", radius);
         return this;
     }
 
@@ -118,7 +176,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper effect(String effect, String value) {
-        transformations.put("e", effect + ":" + value);
+        put("e", effect + ":" + value);
         return this;
     }
 
@@ -129,7 +187,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper border(int width, String color) {
-        transformations.put("bo", width + "px_solid_" + color);
+        put("bo", width + "px_solid_" + color);
         return this;
     }
 
@@ -139,7 +197,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper background(String color) {
-        transformations.put("b", color);
+        put("b", color);
         return this;
     }
 
@@ -149,7 +207,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper named(String name) {
-        transformations.put("t", name);
+        put("t", name);
         return this;
     }
 
@@ -159,7 +217,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper gravity(String gravity) {
-        transformations.put("g", gravity);
+        put("g", gravity);
         return this;
     }
 
@@ -169,22 +227,27 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper rotate(int angle) {
-        transformations.put("a", String.valueOf(angle));
+        put("a", String.valueOf(angle));
         return this;
     }
 
     /**
      * Add overlay image
+     * A step holds one overlay, a second one starts a new step
      * @param publicId Public ID of overlay image
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper overlay(String publicId) {
-        transformations.put("l", publicId);
+        if (transformations.containsKey("l")) {
+            then();
+        }
+        put("l", publicId);
         return this;
     }
 
     /**
      * Add text overlay
+     * A step holds one overlay, a second one starts a new step
      * @param text Text to overlay
      * @param font Font family
      * @param size Font size
@@ -192,8 +255,11 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper textOverlay(String text, String font, int size, String color) {
-        transformations.put("l", "text:" + font + "_" + size + ":" + text);
-        transformations.put("co", color);
+        if (transformations.containsKey("l")) {
+            then();
+        }
+        put("l", "text:" + font + "_" + size + ":" + text);
+        put("co", color);
         return this;
     }
 
@@ -202,7 +268,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper autoFormat() {
-        transformations.put("f", "auto");
+        put("f", "auto");
         return this;
     }
 
@@ -211,7 +277,7 @@ public class CloudinaryTransformationHelper {
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper autoQuality() {
-        transformations.put("q", "auto");
+        put("q", "auto");
         return this;
     }
 
@@ -236,12 +302,33 @@ public class CloudinaryTransformationHelper {
 
     /**
      * Helper method to apply responsive image sizing
+     * w_auto and dpr_auto rely on browser Client Hints, in the app use {@link #responsive(int, float)}
      * @return This helper for chaining
      */
     public CloudinaryTransformationHelper responsive() {
-        transformations.put("c", "scale");
-        transformations.put("w", "auto");
-        transformations.put("dpr", "auto");
+        put("c", "scale");
+        put("w", "auto");
+        put("dpr", "auto");
+        return this;
+    }
+
+    /**
+     * Helper method to size an image for a view on this device
+     * The width is snapped to a {@link ResponsiveBreakpoints} bucket so devices share CDN derivatives,
+     * images narrower than the bucket are not upscaled, and format and quality default to auto
+     * @param widthDp Width of the view in dp
+     * @param density Display density, e.g. DisplayMetrics.density
+     * @return This helper for chaining
+     */
+    public CloudinaryTransformationHelper responsive(int widthDp, float density) {
+        put("c", "limit");
+        put("w", String.valueOf(ResponsiveBreakpoints.bucketFor(widthDp, density)));
+        if (!transformations.containsKey("f")) {
+            autoFormat();
+        }
+        if (!transformations.containsKey("q")) {
+            autoQuality();
+        }
         return this;
     }
 
@@ -0,0 +1,138 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable, canonically ordered transformation ready to be put in a delivery URL.
+ * Parameters are sorted by key and rendered once ("c_fill,h_200,w_200"), so equal
+ * transformations always produce the same URL and can be reused for any number of URLs.
+ * Several steps can be chained ("c_fill,w_200/l_logo/f_auto"); compiled steps are
+ * shared between chains rather than rendered again.
+ */
+public final class CompiledTransformation {
+    public static final CompiledTransformation EMPTY = new CompiledTransformation("", null);
+
+    private final String component;
+    private final int hash;
+    // Steps of a chain, null for a single step
+    private final List<CompiledTransformation> steps;
+
+    private CompiledTransformation(String component, List<CompiledTransformation> steps) {
+        this.component = component;
+        this.hash = component.hashCode();
+        this.steps = steps;
+    }
+
+    /**
+     * Compile transformation parameters
+     *
+     * @param transformations Map of transformation key-value pairs, may be null
+     * @return Compiled transformation
+     */
+    @NonNull
+    public static CompiledTransformation of(@Nullable Map<String, String> transformations) {
+        if (transformations == null || transformations.isEmpty()) {
+            return EMPTY;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> entry : new TreeMap<>(transformations).entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(entry.getKey()).append('_').append(entry.getValue());
+        }
+        return new CompiledTransformation(builder.toString(), null);
+    }
+
+    /**
+     * Chain steps applied one after the other, empty steps are skipped
+     *
+     * @param steps Compiled steps or chains, in order
+     * @return Compiled chain
+     */
+    @NonNull
+    public static CompiledTransformation chain(@NonNull List<CompiledTransformation> steps) {
+        List<CompiledTransformation> flat = new ArrayList<>();
+        for (CompiledTransformation step : steps) {
+            if (step != null && !step.isEmpty()) {
+                flat.addAll(step.getSteps());
+            }
+        }
+        if (flat.isEmpty()) {
+            return EMPTY;
+        }
+        if (flat.size() == 1) {
+            return flat.get(0);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (CompiledTransformation step : flat) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(step.component);
+        }
+        return new CompiledTransformation(builder.toString(), Collections.unmodifiableList(flat));
+    }
+
+    /**
+     * Chain another transformation after this one
+     */
+    @NonNull
+    public CompiledTransformation then(@NonNull CompiledTransformation next) {
+        return chain(Arrays.asList(this, next));
+    }
+
+    public boolean isEmpty() {
+        return component.isEmpty();
+    }
+
+    /**
+     * Rendered URL component, steps are separated by slashes without a leading or trailing one
+     */
+    @NonNull
+    public String getComponent() {
+        return component;
+    }
+
+    /**
+     * Single steps of this transformation
+     */
+    @NonNull
+    public List<CompiledTransformation> getSteps() {
+        if (steps != null) {
+            return steps;
+        }
+        return isEmpty() ? Collections.emptyList() : Collections.singletonList(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CompiledTransformation)) {
+            return false;
+        }
+        CompiledTransformation other = (CompiledTransformation) o;
+        return hash == other.hash && component.equals(other.component);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return component;
+    }
+}
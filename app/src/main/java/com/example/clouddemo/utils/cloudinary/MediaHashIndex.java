@@ -0,0 +1,193 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.clouddemo.api.RetrofitClient;
+import com.example.clouddemo.utils.MediaUtils;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MediaHashIndex maps the SHA-256 of picked media to the Cloudinary asset it was
+ * uploaded as, so uploading the same content again resolves from the index instead
+ * of the network. Entries are keyed by the content, the encoding it was saved with,
+ * the resource type and the destination folder: the same picture saved with another
+ * encoder or sent to another folder is a different asset. The index is LRU-bounded
+ * and persisted to a small JSON file.
+ */
+public class MediaHashIndex {
+    private static final String TAG = "MediaHashIndex";
+    private static final String INDEX_FILE = "media_hash_index.json";
+    private static final int DEFAULT_MAX_ENTRIES = 2000;
+
+    private static MediaHashIndex instance;
+
+    /**
+     * Uploaded asset for one content hash
+     */
+    public static class Entry {
+        public String key;
+        public String publicId;
+        public String secureUrl;
+        public String url;
+    }
+
+    private final File indexFile;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private long lookups = 0;
+    private long hits = 0;
+    private long evictions = 0;
+
+    private MediaHashIndex(Context context, int maxEntries) {
+        this.indexFile = new File(context.getApplicationContext().getFilesDir(), INDEX_FILE);
+        this.maxEntries = maxEntries;
+        // Access order, the eldest entry is the least recently used
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > MediaHashIndex.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        load();
+    }
+
+    public static synchronized MediaHashIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaHashIndex(context, DEFAULT_MAX_ENTRIES);
+        }
+        return instance;
+    }
+
+    private static String keyOf(MediaUtils.SavedSource source, String resourceType, String folder) {
+        return resourceType + ":" + (folder != null ? folder : "") + ":" + source.encoding + ":" + source.contentHash;
+    }
+
+    /**
+     * Find the asset previously uploaded with this content
+     *
+     * @param source       Source of the saved media, see MediaUtils.getSavedSource
+     * @param resourceType Type of resource (image, video)
+     * @param folder       Destination folder, or null
+     * @return Entry or null if this content was not uploaded yet
+     */
+    @Nullable
+    public synchronized Entry get(@NonNull MediaUtils.SavedSource source, @NonNull String resourceType,
+                                  @Nullable String folder) {
+        lookups++;
+        Entry entry = entries.get(keyOf(source, resourceType, folder));
+        if (entry != null) {
+            // The new access order is persisted with the next put
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Record the asset an upload produced
+     */
+    public synchronized void put(@NonNull MediaUtils.SavedSource source, @NonNull String resourceType,
+                                 @Nullable String folder, @NonNull Map<String, Object> uploadResult) {
+        Object publicId = uploadResult.get("public_id");
+        if (publicId == null) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.key = keyOf(source, resourceType, folder);
+        entry.publicId = String.valueOf(publicId);
+        entry.secureUrl = uploadResult.get("secure_url") != null ? String.valueOf(uploadResult.get("secure_url")) : null;
+        entry.url = uploadResult.get("url") != null ? String.valueOf(uploadResult.get("url")) : null;
+        entries.put(entry.key, entry);
+        save();
+    }
+
+    /**
+     * Forget an asset, e.g. after it was deleted from Cloudinary
+     */
+    public synchronized void removeByPublicId(@NonNull String publicId) {
+        boolean removed = false;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (publicId.equals(it.next().publicId)) {
+                it.remove();
+                removed = true;
+            }
+        }
+        if (removed) {
+            save();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getLookupCount() {
+        return lookups;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized double getHitRate() {
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8)) {
+            List<Entry> list = RetrofitClient.getInstance().getGson()
+                    .fromJson(reader, new TypeToken<List<Entry>>() {}.getType());
+            if (list != null) {
+                // Stored least recently used first
+                for (Entry entry : list) {
+                    entries.put(entry.key, entry);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading media hash index: " + e.getMessage());
+        }
+    }
+
+    private void save() {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            RetrofitClient.getInstance().getGson().toJson(new ArrayList<>(entries.values()), writer);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing media hash index: " + e.getMessage());
+            return;
+        }
+        if (!temp.renameTo(indexFile)) {
+            Log.e(TAG, "Failed to replace media hash index");
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.cloudinary.android.signed.Signature;
+import com.example.clouddemo.utils.MediaScheduler;
+
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelChunkUploader sends the chunks of a {@link ChunkedUploader} upload over
+ * several connections at once. Chunks are streamed from the file with FileChannel
+ * positional reads rather than held in memory, and sent on the shared part pool of
+ * {@link MediaScheduler}. At most {@code concurrency} chunks of one upload are in flight
+ * at a time, and the last chunk is sent alone after all others are acknowledged so
+ * Cloudinary's final response always arrives on it.
+ */
+public class ParallelChunkUploader {
+    private static final String TAG = "ParallelChunkUploader";
+
+    private final ChunkedUploader uploader;
+    private final int concurrency;
+
+    /**
+     * @param uploader    Uploader providing signing, chunk requests and the journal
+     * @param concurrency Maximum number of chunks in flight
+     */
+    public ParallelChunkUploader(@NonNull ChunkedUploader uploader, int concurrency) {
+        this.uploader = uploader;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Upload the remaining chunks of an upload (blocking)
+     *
+     * @param entry    Journal entry of the upload
+     * @param callback Callback for aggregated progress and result
+     */
+    public void upload(@NonNull final UploadJournal.Entry entry,
+                       @NonNull final CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback) {
+        final Signature signature = uploader.prepare(entry, callback);
+        if (signature == null) {
+            return;
+        }
+
+        final int chunkCount = entry.getChunkCount();
+        final int lastIndex = chunkCount - 1;
+        final Semaphore window = new Semaphore(concurrency);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Executor pool = MediaScheduler.partExecutor(MediaScheduler.PRIORITY_NORMAL);
+
+        try (RandomAccessFile raf = new RandomAccessFile(entry.filePath, "r");
+             final FileChannel channel = raf.getChannel()) {
+
+            for (int index = 0; index < lastIndex && failure.get() == null; index++) {
+                if (entry.isChunkAcknowledged(index)) {
+                    continue;
+                }
+                if (uploader.isCancelled(entry.uploadId)) {
+                    failure.compareAndSet(null, new InterruptedException("Upload canceled"));
+                    break;
+                }
+
+                window.acquire();
+                final int chunkIndex = index;
+                pool.execute(() -> {
+                    try {
+                        if (failure.get() == null) {
+                            sendChunk(channel, entry, signature, chunkIndex, callback);
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        window.release();
+                    }
+                });
+            }
+
+            // Wait for every chunk in flight, the channel is closed once this block exits
+            window.acquireUninterruptibly(concurrency);
+            window.release(concurrency);
+
+            Exception error = failure.get();
+            if (error != null) {
+                throw error;
+            }
+
+            if (entry.isChunkAcknowledged(lastIndex)) {
+                // Acknowledged by an earlier run that stopped before finishing
+                uploader.finishAcknowledged(entry, callback);
+            } else {
+                Map<String, Object> result = sendChunk(channel, entry, signature, lastIndex, callback);
+                uploader.finish(entry, result, callback);
+            }
+        } catch (Exception e) {
+            // Chunks still queued see the failure and skip
+            failure.compareAndSet(null, e);
+            // Acknowledged chunks stay in the journal, the upload can be resumed later
+            Log.e(TAG, "Parallel upload interrupted, " + entry.getAcknowledgedBytes() + "/"
+                    + entry.fileLength + " bytes acknowledged: " + e.getMessage());
+            callback.onError("Upload interrupted: " + e.getMessage());
+        }
+    }
+
+    private Map<String, Object> sendChunk(FileChannel channel, UploadJournal.Entry entry, Signature signature,
+                                          int index, CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback)
+            throws Exception {
+        long start = (long) index * entry.chunkSize;
+        int length = (int) Math.min(entry.chunkSize, entry.fileLength - start);
+        Map<String, Object> result = uploader.uploadChunk(entry, signature, channel, start, length);
+        if (index == entry.getChunkCount() - 1) {
+            entry.result = result;
+        }
+        entry.acknowledge(index);
+        uploader.getJournal().save(entry);
+        callback.onProgress((int) (entry.getAcknowledgedBytes() * 100 / entry.fileLength));
+        return result;
+    }
+}
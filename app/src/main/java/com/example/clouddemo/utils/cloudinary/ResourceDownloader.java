@@ -0,0 +1,532 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.clouddemo.utils.MediaScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * ResourceDownloader streams a remote resource to a file on the shared OkHttp client.
+ * Bytes go to a ".part" file that is atomically renamed when complete; an existing
+ * partial file is resumed with a Range request guarded by If-Range, using the ETag
+ * kept next to the part file, so bytes of two versions of a resource are never mixed. Large resources can also be split
+ * into byte ranges fetched concurrently on the shared part pool. Progress is reported
+ * from the bytes actually received.
+ */
+public class ResourceDownloader {
+    private static final String TAG = "ResourceDownloader";
+    private static final String PART_SUFFIX = ".part";
+    // Holds the validator (strong ETag or Last-Modified) of the bytes in the part file
+    private static final String VALIDATOR_SUFFIX = ".etag";
+    private static final int READ_SIZE = 64 * 1024;
+    // Resources smaller than segments * this size are downloaded with a single stream
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    // More segments than part pool threads would only queue behind each other
+    private static final int MAX_SEGMENTS = 8;
+    private static final int MAX_SEGMENT_RETRIES = 3;
+    private static final long RETRY_BACKOFF_MS = 500;
+
+    private final OkHttpClient client;
+
+    /**
+     * Handle of a running download
+     */
+    public static class Task {
+        private volatile boolean cancelled = false;
+        private final Set<Call> calls = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        /**
+         * Stop the download, the partial file of a single stream download is kept for a later resume
+         */
+        public void cancel() {
+            cancelled = true;
+            for (Call call : calls) {
+                call.cancel();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        void addCall(Call call) throws IOException {
+            calls.add(call);
+            if (cancelled) {
+                call.cancel();
+                throw new InterruptedIOException("Download canceled");
+            }
+        }
+
+        void removeCall(Call call) {
+            calls.remove(call);
+        }
+
+        /**
+         * Abort the running calls without cancelling the download
+         */
+        void cancelCalls() {
+            for (Call call : calls) {
+                call.cancel();
+            }
+        }
+    }
+
+    /**
+     * The server answered a range request with the whole resource, e.g. because it
+     * changed and the If-Range validator no longer matches. Retrying the range can't help.
+     */
+    private static class ResourceChangedException extends IOException {
+        ResourceChangedException(String message) {
+            super(message);
+        }
+    }
+
+    public ResourceDownloader(@NonNull OkHttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Download a url to a file (blocking)
+     *
+     * @param url             Url of the resource
+     * @param destinationFile Destination file, only created once the download is complete
+     * @param task            Handle used to cancel the download
+     * @param callback        Callback for download progress and result
+     */
+    public void download(@NonNull String url, @NonNull File destinationFile, @NonNull Task task,
+                         @NonNull CloudinaryManager.CloudinaryCallback<File> callback) {
+        File partFile = new File(destinationFile.getPath() + PART_SUFFIX);
+        try {
+            File parent = destinationFile.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Failed to create directory: " + parent);
+            }
+
+            if (!fetch(url, partFile, task, callback)) {
+                // The server rejected the resume range, start over once
+                deleteQuietly(partFile);
+                fetch(url, partFile, task, callback);
+            }
+
+            Files.move(partFile.toPath(), destinationFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            deleteQuietly(validatorFile(partFile));
+            Log.d(TAG, "Downloaded " + url + " to " + destinationFile);
+            callback.onSuccess(destinationFile);
+        } catch (IOException e) {
+            if (task.isCancelled()) {
+                Log.d(TAG, "Download canceled: " + url);
+                callback.onError("Download canceled");
+            } else {
+                Log.e(TAG, "Error downloading " + url + ": " + e.getMessage());
+                callback.onError("Failed to download resource: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Fetch the rest of the resource into the part file
+     *
+     * @return false if the server answered 416 to the resume range or resumed at another offset
+     */
+    private boolean fetch(String url, File partFile, Task task,
+                          CloudinaryManager.CloudinaryCallback<File> callback) throws IOException {
+        File validatorFile = validatorFile(partFile);
+        long existing = partFile.exists() ? partFile.length() : 0;
+        String validator = existing > 0 ? readValidator(validatorFile) : null;
+        if (existing > 0 && validator == null) {
+            // Nothing tells which version of the resource the bytes on disk belong to
+            Log.d(TAG, "No validator for " + partFile + ", restarting");
+            existing = 0;
+        }
+
+        Request.Builder builder = new Request.Builder().url(url);
+        if (existing > 0) {
+            // The server sends the whole resource with a 200 if it changed since
+            builder.header("Range", "bytes=" + existing + "-");
+            builder.header("If-Range", validator);
+        }
+        Call call = client.newCall(builder.build());
+        task.addCall(call);
+
+        try (Response response = call.execute()) {
+            if (response.code() == 416) {
+                return false;
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Server returned HTTP " + response.code());
+            }
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("Empty response body");
+            }
+
+            // 206 continues the part file, 200 means the server sent everything again
+            boolean append = response.code() == 206 && existing > 0;
+            if (response.code() == 206) {
+                long start = contentRangeStart(response.header("Content-Range"));
+                if (start != existing) {
+                    Log.e(TAG, "Server resumed at " + start + " instead of " + existing);
+                    return false;
+                }
+            } else {
+                writeValidator(validatorFile, validatorOf(response));
+            }
+            long offset = append ? existing : 0;
+            long total = body.contentLength() >= 0 ? offset + body.contentLength() : -1;
+            if (existing > 0) {
+                Log.d(TAG, append ? "Resuming download at " + existing : "Server ignored range, restarting");
+            }
+
+            BufferedSource source = body.source();
+            try (BufferedSink sink = Okio.buffer(append ? Okio.appendingSink(partFile) : Okio.sink(partFile))) {
+                Buffer buffer = sink.getBuffer();
+                long received = offset;
+                int lastProgress = -1;
+                long read;
+                while ((read = source.read(buffer, READ_SIZE)) != -1) {
+                    sink.emitCompleteSegments();
+                    received += read;
+                    if (task.isCancelled()) {
+                        throw new InterruptedIOException("Download canceled");
+                    }
+                    if (total > 0) {
+                        int progress = (int) (received * 100 / total);
+                        if (progress != lastProgress) {
+                            lastProgress = progress;
+                            callback.onProgress(progress);
+                        }
+                    }
+                }
+            }
+        } finally {
+            task.removeCall(call);
+        }
+        return true;
+    }
+
+    /**
+     * Download a url as several byte ranges fetched concurrently (blocking).
+     * Falls back to a single stream when the server does not support ranges
+     * or the resource is too small to be worth splitting.
+     *
+     * @param url             Url of the resource
+     * @param destinationFile Destination file, only created once the download is complete
+     * @param segments        Number of concurrent segments, clamped to 1..8
+     * @param task            Handle used to cancel the download
+     * @param callback        Callback for download progress and result
+     */
+    public void downloadSegmented(@NonNull String url, @NonNull File destinationFile, int segments,
+                                  @NonNull Task task, @NonNull CloudinaryManager.CloudinaryCallback<File> callback) {
+        segments = Math.max(1, Math.min(MAX_SEGMENTS, segments));
+        File partFile = new File(destinationFile.getPath() + PART_SUFFIX);
+        List<Future<?>> futures = new ArrayList<>();
+        // Set once the segments are stopped, by a changed resource or by a failed segment
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        // First error of a segment that failed on its own, the others were stopped because of it
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        boolean restart = false;
+        try {
+            RangeInfo info = probe(url, task);
+            if (info == null || segments < 2 || info.total < (long) segments * MIN_SEGMENT_SIZE) {
+                Log.d(TAG, "Using single stream download for " + url);
+                download(url, destinationFile, task, callback);
+                return;
+            }
+
+            File parent = destinationFile.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Failed to create directory: " + parent);
+            }
+
+            long startNs = System.nanoTime();
+            final AtomicLong received = new AtomicLong();
+            final AtomicInteger lastProgress = new AtomicInteger(-1);
+            Executor pool = MediaScheduler.partExecutor(MediaScheduler.PRIORITY_NORMAL);
+
+            try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+                // Preallocate so every segment can write at its own position
+                raf.setLength(info.total);
+                final FileChannel channel = raf.getChannel();
+
+                long segmentSize = (info.total + segments - 1) / segments;
+                for (int i = 0; i < segments; i++) {
+                    final long start = i * segmentSize;
+                    final long end = Math.min(info.total, start + segmentSize) - 1;
+                    if (start > end) {
+                        break;
+                    }
+                    FutureTask<Void> segment = new FutureTask<>(() -> {
+                        try {
+                            fetchSegment(url, info, channel, start, end, task, abandoned, bytes -> {
+                                int progress = (int) (received.addAndGet(bytes) * 100 / info.total);
+                                if (lastProgress.getAndSet(progress) != progress) {
+                                    callback.onProgress(progress);
+                                }
+                            });
+                        } catch (Exception e) {
+                            if (!task.isCancelled() && !abandoned.get()) {
+                                // Stop the others without canceling the caller's task
+                                failure.compareAndSet(null, e);
+                                abandoned.set(true);
+                                task.cancelCalls();
+                            }
+                            throw e;
+                        }
+                        return null;
+                    });
+                    futures.add(segment);
+                    pool.execute(segment);
+                }
+
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = failure.get() != null ? failure.get() : e.getCause();
+                        if (failure.get() == null && abandoned.get() && !task.isCancelled()) {
+                            // A segment found the resource changed and stopped the others
+                            throw new ResourceChangedException("Resource changed during the download");
+                        }
+                        throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Download interrupted");
+                    }
+                }
+                channel.force(false);
+            }
+
+            Files.move(partFile.toPath(), destinationFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            deleteQuietly(validatorFile(partFile));
+            long elapsedMs = Math.max(1, (System.nanoTime() - startNs) / 1_000_000);
+            Log.d(TAG, "Downloaded " + info.total + " bytes in " + segments + " segments, "
+                    + (info.total * 1000 / elapsedMs / 1024) + " KB/s");
+            callback.onSuccess(destinationFile);
+        } catch (IOException e) {
+            // A preallocated part file can't be resumed by the single stream path
+            deleteQuietly(partFile);
+            deleteQuietly(validatorFile(partFile));
+            if (e instanceof ResourceChangedException && !task.isCancelled()) {
+                Log.d(TAG, e.getMessage() + ", restarting with a single stream");
+                restart = true;
+            } else if (task.isCancelled()) {
+                callback.onError("Download canceled");
+            } else {
+                Log.e(TAG, "Error downloading " + url + ": " + e.getMessage());
+                callback.onError("Failed to download resource: " + e.getMessage());
+            }
+        } finally {
+            // Segments still queued on the part pool are dropped
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+        if (restart) {
+            download(url, destinationFile, task, callback);
+        }
+    }
+
+    private static class RangeInfo {
+        final long total;
+        final String etag;
+
+        RangeInfo(long total, String etag) {
+            this.total = total;
+            this.etag = etag;
+        }
+    }
+
+    private interface ProgressListener {
+        void onBytes(long bytes);
+    }
+
+    /**
+     * Ask for the first byte to learn the total size and whether ranges are supported
+     *
+     * @return Range info or null if the server does not support ranges
+     */
+    private RangeInfo probe(String url, Task task) throws IOException {
+        Call call = client.newCall(new Request.Builder().url(url).header("Range", "bytes=0-0").build());
+        task.addCall(call);
+        try (Response response = call.execute()) {
+            String contentRange = response.header("Content-Range");
+            if (response.code() != 206 || contentRange == null) {
+                return null;
+            }
+            // Content-Range: bytes 0-0/12345
+            int slash = contentRange.lastIndexOf('/');
+            if (slash < 0 || contentRange.endsWith("*")) {
+                return null;
+            }
+            try {
+                return new RangeInfo(Long.parseLong(contentRange.substring(slash + 1).trim()), response.header("ETag"));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } finally {
+            task.removeCall(call);
+        }
+    }
+
+    /**
+     * Fetch bytes start..end (inclusive) into the channel, retrying from the last written byte
+     */
+    private void fetchSegment(String url, RangeInfo info, FileChannel channel, long start, long end,
+                              Task task, AtomicBoolean abandoned, ProgressListener listener)
+            throws IOException, InterruptedException {
+        long position = start;
+        IOException lastError = null;
+
+        for (int attempt = 0; attempt <= MAX_SEGMENT_RETRIES && position <= end; attempt++) {
+            if (abandoned.get()) {
+                throw new InterruptedIOException("Segment abandoned");
+            }
+            if (attempt > 0) {
+                Log.d(TAG, "Retrying segment " + start + "-" + end + " at " + position + ", attempt " + attempt);
+                Thread.sleep(RETRY_BACKOFF_MS << (attempt - 1));
+            }
+            Request.Builder builder = new Request.Builder().url(url)
+                    .header("Range", "bytes=" + position + "-" + end);
+            if (info.etag != null) {
+                // Fail instead of mixing bytes of two versions of the resource
+                builder.header("If-Range", info.etag);
+            }
+            Call call = client.newCall(builder.build());
+            task.addCall(call);
+
+            try (Response response = call.execute()) {
+                if (response.code() == 200) {
+                    // Stop the other segments but keep the task for the single stream restart
+                    abandoned.set(true);
+                    task.cancelCalls();
+                    throw new ResourceChangedException("Server sent the whole resource for segment " + start + "-" + end);
+                }
+                if (response.code() != 206 || response.body() == null) {
+                    throw new IOException("Server returned HTTP " + response.code() + " for a range request");
+                }
+                BufferedSource source = response.body().source();
+                ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+                int read;
+                while (position <= end && (read = source.read(buffer)) != -1) {
+                    if (task.isCancelled() || abandoned.get()) {
+                        throw new InterruptedIOException("Download canceled");
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                    listener.onBytes(read);
+                }
+                lastError = null;
+            } catch (IOException e) {
+                if (task.isCancelled() || abandoned.get() || e instanceof ResourceChangedException) {
+                    throw e;
+                }
+                lastError = e;
+            } finally {
+                task.removeCall(call);
+            }
+        }
+
+        if (position <= end) {
+            throw lastError != null ? lastError : new IOException("Segment " + start + "-" + end + " incomplete");
+        }
+    }
+
+    private static File validatorFile(File partFile) {
+        return new File(partFile.getPath() + VALIDATOR_SUFFIX);
+    }
+
+    /**
+     * Validator usable in If-Range: a strong ETag, else Last-Modified
+     */
+    private static String validatorOf(Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    private static String readValidator(File validatorFile) {
+        if (!validatorFile.exists()) {
+            return null;
+        }
+        try {
+            String validator = new String(Files.readAllBytes(validatorFile.toPath()), StandardCharsets.UTF_8).trim();
+            return validator.isEmpty() ? null : validator;
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading " + validatorFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeValidator(File validatorFile, String validator) throws IOException {
+        if (validator == null) {
+            deleteQuietly(validatorFile);
+        } else {
+            Files.write(validatorFile.toPath(), validator.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * First byte of a "Content-Range: bytes start-end/total" header, -1 if missing or invalid
+     */
+    static long contentRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(TAG, "Failed to delete " + file);
+        }
+    }
+}
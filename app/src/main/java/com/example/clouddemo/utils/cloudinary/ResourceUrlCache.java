@@ -0,0 +1,189 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ResourceUrlCache keeps delivery URLs built for (public ID, resource type, transformation),
+ * so binding the same item again returns the same String without rebuilding it.
+ * Reads are lock-free; misses build the URL into a per-thread StringBuilder that
+ * already holds the cloud prefix. The cache is bounded and evicts with CLOCK, an
+ * approximation of LRU: a read only sets a flag on the entry, and when the cache is full
+ * the hand passes over entries in insertion order, giving flagged ones a second chance
+ * and dropping the first one that was not read since the hand last passed it.
+ */
+public class ResourceUrlCache {
+    private static final int DEFAULT_MAX_ENTRIES = 2048;
+
+    private final String prefix;
+    private final int maxEntries;
+    private final Map<Key, Entry> urls = new ConcurrentHashMap<>();
+    // Keys in clock order, the head is under the hand. Guarded by itself, only touched on misses.
+    private final ArrayDeque<Key> clock = new ArrayDeque<>();
+    private final ThreadLocal<StringBuilder> builders;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class Key {
+        final String publicId;
+        final String resourceType;
+        final CompiledTransformation transformation;
+        final int hash;
+
+        Key(String publicId, String resourceType, CompiledTransformation transformation) {
+            this.publicId = publicId;
+            this.resourceType = resourceType;
+            this.transformation = transformation;
+            this.hash = 31 * (31 * publicId.hashCode() + resourceType.hashCode()) + transformation.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && publicId.equals(other.publicId)
+                    && resourceType.equals(other.resourceType) && transformation.equals(other.transformation);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final String url;
+        // Read since the clock hand last passed, written without locking
+        volatile boolean referenced;
+
+        Entry(String url) {
+            this.url = url;
+        }
+    }
+
+    /**
+     * @param baseUrl Delivery URL of the cloud, e.g. "https://res.cloudinary.com/demo/"
+     */
+    public ResourceUrlCache(@NonNull String baseUrl) {
+        this(baseUrl, DEFAULT_MAX_ENTRIES);
+    }
+
+    public ResourceUrlCache(@NonNull String baseUrl, int maxEntries) {
+        this.prefix = baseUrl;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.builders = ThreadLocal.withInitial(() -> new StringBuilder(256).append(prefix));
+    }
+
+    /**
+     * Get the URL of a resource, building it on a miss
+     *
+     * @param publicId       Public ID of the resource
+     * @param resourceType   Type of resource (image, video, raw, etc.)
+     * @param transformation Compiled transformation, may be empty
+     * @return URL for the resource
+     */
+    @NonNull
+    public String get(@NonNull String publicId, @NonNull String resourceType,
+                      @NonNull CompiledTransformation transformation) {
+        Key key = new Key(publicId, resourceType, transformation);
+        Entry entry = urls.get(key);
+        if (entry != null) {
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            hits.incrementAndGet();
+            return entry.url;
+        }
+        misses.incrementAndGet();
+
+        String url = build(publicId, resourceType, transformation);
+        synchronized (clock) {
+            Entry existing = urls.get(key);
+            if (existing != null) {
+                // Built concurrently by another thread
+                return existing.url;
+            }
+            while (urls.size() >= maxEntries) {
+                if (!evictOne()) {
+                    break;
+                }
+            }
+            urls.put(key, new Entry(url));
+            clock.addLast(key);
+        }
+        return url;
+    }
+
+    /**
+     * Advance the clock hand until an entry is dropped. After two full turns every
+     * flag has been cleared once, so an entry read again meanwhile is dropped anyway.
+     *
+     * @return false if there was nothing to drop
+     */
+    private boolean evictOne() {
+        int limit = 2 * clock.size();
+        for (int scanned = 0; scanned <= limit; scanned++) {
+            Key key = clock.pollFirst();
+            if (key == null) {
+                return false;
+            }
+            Entry entry = urls.get(key);
+            if (entry == null) {
+                continue;
+            }
+            if (entry.referenced && scanned < limit) {
+                entry.referenced = false;
+                clock.addLast(key);
+            } else {
+                urls.remove(key);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String build(String publicId, String resourceType, CompiledTransformation transformation) {
+        StringBuilder builder = builders.get();
+        builder.setLength(prefix.length());
+        builder.append(resourceType).append("/upload/");
+        if (!transformation.isEmpty()) {
+            builder.append(transformation.getComponent()).append('/');
+        }
+        builder.append(publicId);
+        return builder.toString();
+    }
+
+    public void clear() {
+        synchronized (clock) {
+            urls.clear();
+            clock.clear();
+        }
+    }
+
+    public int size() {
+        return urls.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+}
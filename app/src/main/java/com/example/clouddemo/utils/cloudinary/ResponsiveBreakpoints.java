@@ -0,0 +1,57 @@
+package com.example.clouddemo.utils.cloudinary;
+
+/**
+ * Width buckets for responsive delivery URLs.
+ * The pixel width a view needs is snapped up to one of a few fixed widths, so
+ * similar views on different devices request the same derivative and hit the
+ * CDN cache, while never downloading much more than is displayed.
+ */
+public final class ResponsiveBreakpoints {
+    // Ascending, the last one is the largest width ever requested
+    static final int[] WIDTH_BUCKETS = {160, 320, 480, 640, 800, 1080, 1280, 1600, 1920, 2560};
+
+    private ResponsiveBreakpoints() {
+    }
+
+    /**
+     * Width bucket for a view
+     *
+     * @param widthDp Width of the view in dp
+     * @param density Display density, e.g. DisplayMetrics.density
+     * @return Smallest bucket at least as wide as the view in pixels
+     */
+    public static int bucketFor(int widthDp, float density) {
+        return bucketForPixels((int) Math.ceil(widthDp * density));
+    }
+
+    /**
+     * Width bucket for a width in pixels
+     *
+     * @param widthPx Width in pixels
+     * @return Smallest bucket at least this wide, or the largest bucket
+     */
+    public static int bucketForPixels(int widthPx) {
+        for (int bucket : WIDTH_BUCKETS) {
+            if (bucket >= widthPx) {
+                return bucket;
+            }
+        }
+        return WIDTH_BUCKETS[WIDTH_BUCKETS.length - 1];
+    }
+
+    /**
+     * Estimate the decoded bitmap memory saved by fetching a bucket instead of the original
+     *
+     * @param sourceWidth  Width of the original in pixels
+     * @param sourceHeight Height of the original in pixels
+     * @param bucketWidth  Requested width, see {@link #bucketFor(int, float)}
+     * @return Bytes saved at 4 bytes per pixel, 0 if the original is not wider
+     */
+    public static long estimateBytesSaved(int sourceWidth, int sourceHeight, int bucketWidth) {
+        if (sourceWidth <= bucketWidth || sourceWidth <= 0) {
+            return 0;
+        }
+        long bucketHeight = (long) sourceHeight * bucketWidth / sourceWidth;
+        return ((long) sourceWidth * sourceHeight - bucketWidth * bucketHeight) * 4;
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.cloudinary.android.signed.Signature;
+import com.example.clouddemo.api.CloudinaryService;
+import com.example.clouddemo.model.ResponseData;
+import com.example.clouddemo.model.SignatureData;
+import com.example.clouddemo.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * SignatureBatcher collects signature requests made by queued uploads over a short
+ * window and resolves them with a single call to the batch signing endpoint.
+ * A request made while no batch is in flight is sent at once, requests arriving during
+ * a call are collected for the next one. Batch calls are enqueued, no thread blocks on them
+ * except the callers waiting for their signature. If the batch call fails, each caller signs its
+ * own request with the single signing loader on its own thread, and once the endpoint
+ * answers that it doesn't exist later requests go straight to the loader.
+ */
+public class SignatureBatcher {
+    private static final String TAG = "SignatureBatcher";
+    // Bounds the whole batch call, the client's own connect and read timeouts add up to more
+    private static final long BATCH_CALL_TIMEOUT_SECONDS = 90;
+    // Extra wait on top of the window and two batch calls, the one in flight and the caller's own
+    private static final long REQUEST_TIMEOUT_MARGIN_MS = 10_000;
+
+    private static class PendingRequest {
+        final String configUrl;
+        final CompletableFuture<Signature> future = new CompletableFuture<>();
+        // Set before the future completes when the caller has to sign the request itself
+        boolean signAlone;
+
+        PendingRequest(String configUrl) {
+            this.configUrl = configUrl;
+        }
+    }
+
+    private final CloudinaryService service;
+    private final String token;
+    private final SignatureCache.Loader fallback;
+    private final long windowMs;
+    private final int maxBatchSize;
+
+    private final Object lock = new Object();
+    private List<PendingRequest> pending = new ArrayList<>();
+    private int batchesInFlight = 0;
+    // The backend has no batch endpoint (404/405/501), checked before every request
+    private volatile boolean batchUnsupported = false;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong signedCount = new AtomicLong();
+
+    /**
+     * @param service      Service used for the batch call
+     * @param token        Authorization token
+     * @param fallback     Loader used for single requests when the batch call fails
+     * @param windowMs     How long to collect requests before sending a batch
+     * @param maxBatchSize Send immediately once this many requests are pending
+     */
+    public SignatureBatcher(@NonNull CloudinaryService service, @NonNull String token,
+                            @NonNull SignatureCache.Loader fallback, long windowMs, int maxBatchSize) {
+        this.service = service;
+        this.token = token;
+        this.fallback = fallback;
+        this.windowMs = windowMs;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sign a config url, blocking until the batch containing it is resolved
+     *
+     * @param configUrl Canonical config url
+     * @return Signature or null on failure
+     */
+    @Nullable
+    public Signature sign(@NonNull String configUrl) throws Exception {
+        if (batchUnsupported) {
+            return fallback.load(configUrl);
+        }
+
+        PendingRequest request = new PendingRequest(configUrl);
+        List<PendingRequest> batch = null;
+
+        synchronized (lock) {
+            pending.add(request);
+            if (batchesInFlight == 0 || pending.size() >= maxBatchSize) {
+                // Nothing to wait for, or the batch is full
+                batch = takePending();
+            } else if (pending.size() == 1) {
+                scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (batch != null) {
+            send(batch);
+        }
+        long timeoutMs = 2 * TimeUnit.SECONDS.toMillis(BATCH_CALL_TIMEOUT_SECONDS) + windowMs
+                + REQUEST_TIMEOUT_MARGIN_MS;
+        Signature signature;
+        try {
+            signature = request.future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.e(TAG, "Batch signing timed out after " + timeoutMs + "ms, signing alone");
+            return fallback.load(configUrl);
+        }
+        return request.signAlone ? fallback.load(configUrl) : signature;
+    }
+
+    private void flush() {
+        List<PendingRequest> batch;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takePending();
+        }
+        send(batch);
+    }
+
+    private List<PendingRequest> takePending() {
+        List<PendingRequest> batch = pending;
+        pending = new ArrayList<>();
+        batchesInFlight++;
+        return batch;
+    }
+
+    /**
+     * Enqueue the batch call, its result is handed to the scheduler thread since
+     * Retrofit delivers callbacks on the main thread
+     */
+    private void send(List<PendingRequest> batch) {
+        List<String> configUrls = new ArrayList<>(batch.size());
+        for (PendingRequest request : batch) {
+            configUrls.add(request.configUrl);
+        }
+
+        try {
+            Call<ResponseData<List<SignatureData>>> call = service.getSignatures(Utils.formatToken(token), configUrls);
+            call.timeout().timeout(BATCH_CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            call.enqueue(new Callback<ResponseData<List<SignatureData>>>() {
+                @Override
+                public void onResponse(@NonNull Call<ResponseData<List<SignatureData>>> call,
+                                       @NonNull Response<ResponseData<List<SignatureData>>> response) {
+                    List<SignatureData> results = null;
+                    if (response.code() == 200 && response.body() != null) {
+                        results = response.body().getData();
+                    } else if (response.code() == 404 || response.code() == 405 || response.code() == 501) {
+                        Log.d(TAG, "Batch signing not supported by the backend (" + response.code() + ")");
+                        batchUnsupported = true;
+                    } else {
+                        Log.e(TAG, "Error getting signatures: " + response.code());
+                    }
+                    List<SignatureData> resolved = results;
+                    scheduler.execute(() -> complete(batch, resolved));
+                }
+
+                @Override
+                public void onFailure(@NonNull Call<ResponseData<List<SignatureData>>> call, @NonNull Throwable t) {
+                    Log.e(TAG, "Error getting signatures: " + t.getMessage());
+                    scheduler.execute(() -> complete(batch, null));
+                }
+            });
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting signatures: " + e.getMessage());
+            complete(batch, null);
+        }
+    }
+
+    private void complete(List<PendingRequest> batch, @Nullable List<SignatureData> results) {
+        try {
+            resolve(batch, results);
+        } finally {
+            synchronized (lock) {
+                batchesInFlight--;
+                // Requests collected during this call don't have to wait out the window
+                if (batchesInFlight == 0 && !pending.isEmpty()) {
+                    scheduler.execute(this::flush);
+                }
+            }
+        }
+    }
+
+    private void resolve(List<PendingRequest> batch, @Nullable List<SignatureData> results) {
+        if (results == null || results.size() != batch.size()) {
+            Log.d(TAG, "Batch signing unavailable, " + batch.size() + " requests are signed by their callers");
+            for (PendingRequest request : batch) {
+                request.signAlone = true;
+                request.future.complete(null);
+            }
+            return;
+        }
+
+        batchCount.incrementAndGet();
+        signedCount.addAndGet(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            SignatureData data = results.get(i);
+            batch.get(i).future.complete(data != null ? data.toSignature() : null);
+        }
+    }
+
+    /**
+     * Number of batch calls that were resolved successfully
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Number of signatures resolved from batch calls
+     */
+    public long getSignedCount() {
+        return signedCount.get();
+    }
+
+    /**
+     * Whether the backend answered that it has no batch endpoint
+     */
+    public boolean isBatchUnsupported() {
+        return batchUnsupported;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.cloudinary.android.signed.Signature;
+import com.example.clouddemo.utils.Utils;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SignatureCache keeps upload signatures returned by the backend so that uploads
+ * sharing the same option set can reuse them instead of calling the backend again.
+ * Cloudinary accepts a signed request for one hour after its timestamp, so entries
+ * expire a little before that. Concurrent requests for the same options share a
+ * single backend call.
+ */
+public class SignatureCache {
+    private static final String TAG = "SignatureCache";
+
+    // Cloudinary rejects signatures older than one hour
+    private static final long SIGNATURE_VALIDITY_MS = TimeUnit.HOURS.toMillis(1);
+    // Leave room for clock skew and for the upload itself to start
+    private static final long EXPIRY_MARGIN_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Loads a fresh signature for a canonical config url
+     */
+    public interface Loader {
+        @Nullable
+        Signature load(@NonNull String configUrl) throws Exception;
+    }
+
+    private static class Entry {
+        final Signature signature;
+        final long expiresAt;
+
+        Entry(Signature signature, long expiresAt) {
+            this.signature = signature;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Loader loader;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Signature>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong sharedCount = new AtomicLong();
+
+    public SignatureCache(@NonNull Loader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Get a signature for the given upload options, using the cache when possible
+     *
+     * @param options Upload options as passed to the SignatureProvider
+     * @return Signature or null if the backend could not provide one
+     */
+    @Nullable
+    public Signature get(@NonNull Map<String, Object> options) {
+        return get(options, 0);
+    }
+
+    /**
+     * Get a signature that stays valid for a while, e.g. for an upload sent in several requests
+     *
+     * @param options       Upload options as passed to the SignatureProvider
+     * @param minValidityMs Cached signatures expiring sooner than this are replaced by a fresh one
+     * @return Signature or null if the backend could not provide one
+     */
+    @Nullable
+    public Signature get(@NonNull Map<String, Object> options, long minValidityMs) {
+        String key = Utils.getConfigUrl(options);
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.expiresAt > System.currentTimeMillis() + minValidityMs) {
+                hitCount.incrementAndGet();
+                return entry.signature;
+            }
+            entries.remove(key, entry);
+        }
+
+        // Single-flight: only the first caller for a key goes to the backend
+        CompletableFuture<Signature> future = new CompletableFuture<>();
+        CompletableFuture<Signature> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            sharedCount.incrementAndGet();
+            try {
+                return existing.get();
+            } catch (Exception e) {
+                Log.e(TAG, "Shared signature request failed: " + e.getMessage());
+                return null;
+            }
+        }
+
+        missCount.incrementAndGet();
+        Signature signature = null;
+        try {
+            signature = loader.load(key);
+            if (signature != null) {
+                long expiresAt = expiresAt(signature);
+                if (expiresAt > System.currentTimeMillis()) {
+                    entries.put(key, new Entry(signature, expiresAt));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading signature: " + e.getMessage());
+        } finally {
+            inFlight.remove(key, future);
+            future.complete(signature);
+        }
+        return signature;
+    }
+
+    /**
+     * Time after which a signature is no longer used, a little before Cloudinary rejects it
+     */
+    public static long expiresAt(@NonNull Signature signature) {
+        return signature.getTimestamp() * 1000L + SIGNATURE_VALIDITY_MS - EXPIRY_MARGIN_MS;
+    }
+
+    /**
+     * Drop all cached signatures
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of callers that waited on another caller's in-flight request
+     */
+    public long getSharedCount() {
+        return sharedCount.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
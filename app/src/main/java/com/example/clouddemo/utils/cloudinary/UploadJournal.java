@@ -0,0 +1,181 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.clouddemo.api.RetrofitClient;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * UploadJournal persists the state of chunked uploads, one small JSON file per upload,
+ * so an upload interrupted by a dropped connection or app restart can continue from
+ * the last chunk Cloudinary acknowledged.
+ */
+public class UploadJournal {
+    private static final String TAG = "UploadJournal";
+    private static final String JOURNAL_FOLDER = "upload_journal";
+    private static final String EXTENSION = ".json";
+
+    private final File directory;
+
+    /**
+     * State of one chunked upload
+     */
+    public static class Entry {
+        public String uploadId;
+        public String filePath;
+        public long fileLength;
+        public long lastModified;
+        public int chunkSize;
+        public String resourceType;
+        public Map<String, String> options;
+        // First byte that has not been acknowledged yet
+        public long nextOffset;
+        // Chunks after nextOffset acknowledged out of order by parallel uploads
+        public List<Integer> ackedChunks = new ArrayList<>();
+        // Response to the last chunk, kept until the upload is finished
+        public Map<String, Object> result;
+
+        public int getChunkCount() {
+            return (int) ((fileLength + chunkSize - 1) / chunkSize);
+        }
+
+        public synchronized boolean isChunkAcknowledged(int index) {
+            return (long) index * chunkSize < nextOffset || ackedChunks.contains(index);
+        }
+
+        /**
+         * Mark a chunk as acknowledged, advancing nextOffset over every contiguous acknowledged chunk
+         */
+        public synchronized void acknowledge(int index) {
+            if (!ackedChunks.contains(index)) {
+                ackedChunks.add(index);
+            }
+            int next = (int) (nextOffset / chunkSize);
+            while (ackedChunks.remove(Integer.valueOf(next))) {
+                next++;
+                nextOffset = Math.min((long) next * chunkSize, fileLength);
+            }
+        }
+
+        /**
+         * Bytes acknowledged so far
+         */
+        public synchronized long getAcknowledgedBytes() {
+            long bytes = nextOffset;
+            for (int index : ackedChunks) {
+                bytes += Math.min(chunkSize, fileLength - (long) index * chunkSize);
+            }
+            return bytes;
+        }
+
+        /**
+         * Check the file is still the one this upload was started with
+         */
+        public boolean matchesFile() {
+            File file = new File(filePath);
+            return file.exists() && file.length() == fileLength && file.lastModified() == lastModified;
+        }
+    }
+
+    public UploadJournal(@NonNull Context context) {
+        this(new File(context.getFilesDir(), JOURNAL_FOLDER));
+    }
+
+    UploadJournal(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Write the entry, replacing the previous state atomically
+     */
+    public synchronized void save(@NonNull Entry entry) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create journal directory: " + directory);
+        }
+        File target = new File(directory, entry.uploadId + EXTENSION);
+        File temp = new File(directory, entry.uploadId + EXTENSION + ".tmp");
+
+        try (FileOutputStream fos = new FileOutputStream(temp);
+             Writer writer = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
+            synchronized (entry) {
+                RetrofitClient.getInstance().getGson().toJson(entry, writer);
+            }
+            writer.flush();
+            // Make sure the state is on disk before it replaces the old one
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Failed to write journal entry: " + target);
+        }
+    }
+
+    /**
+     * Read one entry
+     *
+     * @return Entry or null if it does not exist or can't be read
+     */
+    @Nullable
+    public synchronized Entry load(@NonNull String uploadId) {
+        return read(new File(directory, uploadId + EXTENSION));
+    }
+
+    /**
+     * Read all unfinished uploads
+     */
+    @NonNull
+    public synchronized List<Entry> loadAll() {
+        List<Entry> entries = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return entries;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(EXTENSION)) {
+                Entry entry = read(file);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Remove the entry of a finished or abandoned upload
+     */
+    public synchronized void remove(@NonNull String uploadId) {
+        File file = new File(directory, uploadId + EXTENSION);
+        if (file.exists() && !file.delete()) {
+            Log.e(TAG, "Failed to delete journal entry: " + file);
+        }
+    }
+
+    @Nullable
+    private Entry read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return RetrofitClient.getInstance().getGson().fromJson(reader, Entry.class);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading journal entry " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,605 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.cloudinary.android.MediaManager;
+import com.cloudinary.android.callback.ErrorInfo;
+import com.cloudinary.android.callback.UploadCallback;
+import com.example.clouddemo.api.RetrofitClient;
+import com.example.clouddemo.utils.MediaScheduler;
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+/**
+ * UploadQueue is a durable, prioritized queue of uploads.
+ * Every change is appended to an on-disk journal, so queued uploads survive process
+ * death and are picked up again on the next start. Thumbnails are sent before images,
+ * images before videos, and smaller files before larger ones. The same file queued
+ * twice for the same destination is only uploaded once.
+ * A restored chunked upload continues its journal entry through the item's uploadId.
+ * Uploads already handed to MediaManager are persisted by the SDK itself, so they are
+ * not dispatched again after a restart, their results still reach the listener.
+ * Callers only update the in-memory queue: journal writes and dispatching run on the
+ * I/O pool, the writes in order by one task at a time.
+ */
+public class UploadQueue {
+    private static final String TAG = "UploadQueue";
+    private static final String JOURNAL_FILE = "upload_queue.log";
+    private static final int DEFAULT_PARALLELISM = 2;
+    // Rewrite the journal once it holds this many finished records
+    private static final int COMPACT_THRESHOLD = 100;
+
+    public static final int PRIORITY_THUMBNAIL = 0;
+    public static final int PRIORITY_IMAGE = 1;
+    public static final int PRIORITY_VIDEO = 2;
+
+    private static final String OP_ADD = "add";
+    private static final String OP_DONE = "done";
+    // The SDK took over the upload, records its request id
+    private static final String OP_DISPATCH = "dispatch";
+
+    private static UploadQueue instance;
+
+    /**
+     * One queued upload, also the record written to the journal
+     */
+    public static class Item {
+        String op;
+        public String id;
+        // Absolute path, or a content uri for uploads streamed from the source
+        public String filePath;
+        public String resourceType;
+        public String folder;
+        public int priority;
+        public long size;
+        public long createdAt;
+        // Id of the resumable chunked upload, so a restored item continues its journal entry
+        public String uploadId;
+        // MediaManager request id once the SDK owns the upload
+        public String requestId;
+
+        String getKey() {
+            return filePath + "|" + resourceType + "|" + folder;
+        }
+
+        boolean isContentUri() {
+            return filePath.startsWith("content:");
+        }
+    }
+
+    /**
+     * Receives results of uploads restored from the journal, which no longer have a callback
+     */
+    public interface Listener {
+        void onUploadFinished(Item item, @Nullable Map<String, Object> result, @Nullable String errorMsg);
+    }
+
+    private static final Comparator<Item> ORDER = (a, b) -> {
+        if (a.priority != b.priority) {
+            return Integer.compare(a.priority, b.priority);
+        }
+        if (a.size != b.size) {
+            return Long.compare(a.size, b.size);
+        }
+        return Long.compare(a.createdAt, b.createdAt);
+    };
+
+    private final Context context;
+    private final File journalFile;
+    private final Gson gson;
+
+    private final PriorityQueue<Item> pending = new PriorityQueue<>(11, ORDER);
+    // Pending and running items by dedup key
+    private final Map<String, Item> queued = new HashMap<>();
+    private final Map<String, List<CloudinaryManager.CloudinaryCallback<Map<String, Object>>>> callbacks = new HashMap<>();
+    // SDK uploads restored from the journal, by request id
+    private final Map<String, Item> handedOver = new HashMap<>();
+    private int running = 0;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private int finishedRecords = 0;
+    private boolean started = false;
+    private Listener listener;
+
+    // Journal records not written yet, in order, guarded by journalLock
+    private final Object journalLock = new Object();
+    private List<String> journalBacklog = new ArrayList<>();
+    // Unfinished items to rewrite the journal with before the backlog, null if not compacting
+    private List<String> journalSnapshot;
+    private boolean journalWriting = false;
+
+    private UploadQueue(Context context) {
+        this.context = context.getApplicationContext();
+        this.journalFile = new File(this.context.getFilesDir(), JOURNAL_FILE);
+        this.gson = RetrofitClient.getInstance().getGson();
+        restore();
+    }
+
+    public static synchronized UploadQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new UploadQueue(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Set the listener for restored uploads
+     */
+    public synchronized void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Set how many uploads run at the same time
+     */
+    public void setParallelism(int parallelism) {
+        List<Item> ready;
+        synchronized (this) {
+            this.parallelism = Math.max(1, parallelism);
+            ready = takeReady();
+        }
+        dispatch(ready);
+    }
+
+    /**
+     * Start draining the queue, CloudinaryManager must be initialized
+     */
+    public void start() {
+        List<Item> ready;
+        synchronized (this) {
+            if (started) {
+                return;
+            }
+            started = true;
+            if (!handedOver.isEmpty()) {
+                MediaManager.get().registerCallback(handOverCallback);
+            }
+            ready = takeReady();
+        }
+        dispatch(ready);
+    }
+
+    /**
+     * Queue a file for upload
+     *
+     * @param file         File to upload
+     * @param resourceType "image" or "video"
+     * @param folder       Destination folder in Cloudinary
+     * @param priority     One of the PRIORITY_ constants
+     * @param callback     Callback for upload progress and result
+     * @return ID of the queued upload, or of the already queued identical upload
+     */
+    public String enqueue(@NonNull File file, @NonNull String resourceType, @Nullable String folder,
+                          int priority,
+                          @Nullable CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback) {
+        return enqueue(file.getAbsolutePath(), file.length(), resourceType, folder, priority, callback);
+    }
+
+    private String enqueue(String filePath, long size, String resourceType, String folder, int priority,
+                           CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback) {
+        Item item = new Item();
+        item.id = UUID.randomUUID().toString();
+        item.filePath = filePath;
+        item.resourceType = resourceType;
+        item.folder = folder;
+        item.priority = priority;
+        item.size = size;
+        item.createdAt = System.currentTimeMillis();
+        item.uploadId = UUID.randomUUID().toString();
+
+        List<Item> ready;
+        synchronized (this) {
+            Item existing = queued.get(item.getKey());
+            if (existing != null) {
+                Log.d(TAG, "Already queued: " + item.filePath);
+                addCallback(existing.id, callback);
+                return existing.id;
+            }
+
+            item.op = OP_ADD;
+            append(item);
+            queued.put(item.getKey(), item);
+            pending.add(item);
+            addCallback(item.id, callback);
+            Log.d(TAG, "Queued " + resourceType + " upload " + item.id + ", pending: " + pending.size());
+            ready = takeReady();
+        }
+        CloudinaryManager.getInstance(context).claimUpload(item.uploadId);
+
+        dispatch(ready);
+        return item.id;
+    }
+
+    /**
+     * Queue a content uri for upload without copying it to app storage.
+     * The uri must pass {@link CloudinaryManager#canUploadFromUri(Uri)}, and fails
+     * if its read permission is gone when it is restored after a restart.
+     *
+     * @param uri          Content uri to upload
+     * @param size         Size of the source in bytes, used for ordering and passed to the upload
+     * @param resourceType "image" or "video"
+     * @param folder       Destination folder in Cloudinary
+     * @param priority     One of the PRIORITY_ constants
+     * @param callback     Callback for upload progress and result
+     * @return ID of the queued upload, or of the already queued identical upload
+     */
+    public String enqueue(@NonNull Uri uri, long size, @NonNull String resourceType,
+                          @Nullable String folder, int priority,
+                          @Nullable CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback) {
+        return enqueue(uri.toString(), size, resourceType, folder, priority, callback);
+    }
+
+    /**
+     * Number of uploads waiting or running
+     */
+    public synchronized int size() {
+        return queued.size();
+    }
+
+    private void addCallback(String id, CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback) {
+        if (callback == null) {
+            return;
+        }
+        List<CloudinaryManager.CloudinaryCallback<Map<String, Object>>> list = callbacks.get(id);
+        if (list == null) {
+            list = new ArrayList<>();
+            callbacks.put(id, list);
+        }
+        list.add(callback);
+    }
+
+    /**
+     * Take the items that can start now and count them as running
+     */
+    private List<Item> takeReady() {
+        List<Item> ready = new ArrayList<>();
+        if (!started) {
+            return ready;
+        }
+        while (running < parallelism && !pending.isEmpty()) {
+            running++;
+            ready.add(pending.poll());
+        }
+        return ready;
+    }
+
+    /**
+     * Start uploads taken with takeReady on the I/O pool, starting one reads the source
+     * and the upload indexes, must be called without holding the lock
+     */
+    private void dispatch(List<Item> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        MediaScheduler.runIo(MediaScheduler.PRIORITY_NORMAL, () -> {
+            for (Item item : items) {
+                dispatch(item);
+            }
+        });
+    }
+
+    private void dispatch(final Item item) {
+        // A uri whose read permission is gone fails in the upload itself, no need to open it here
+        if (!item.isContentUri() && !new File(item.filePath).exists()) {
+            Log.e(TAG, "File no longer exists, dropping upload: " + item.filePath);
+            complete(item, null, "File not found: " + item.filePath);
+            return;
+        }
+
+        Log.d(TAG, "Uploading " + item.id + " (priority " + item.priority + ", " + item.size + " bytes)");
+        String requestId;
+        try {
+            requestId = CloudinaryManager.getInstance(context).uploadMedia(
+                    item.isContentUri() ? item.filePath : Uri.fromFile(new File(item.filePath)).toString(),
+                    item.folder,
+                    item.resourceType,
+                    item.uploadId,
+                    item.size,
+                    new CloudinaryManager.CloudinaryCallback<Map<String, Object>>() {
+                        @Override
+                        public void onSuccess(Map<String, Object> result) {
+                            complete(item, result, null);
+                        }
+
+                        @Override
+                        public void onError(String errorMsg) {
+                            complete(item, null, errorMsg);
+                        }
+
+                        @Override
+                        public void onProgress(int progress) {
+                            List<CloudinaryManager.CloudinaryCallback<Map<String, Object>>> list;
+                            synchronized (UploadQueue.this) {
+                                list = callbacks.get(item.id);
+                                list = list != null ? new ArrayList<>(list) : null;
+                            }
+                            if (list != null) {
+                                for (CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback : list) {
+                                    callback.onProgress(progress);
+                                }
+                            }
+                        }
+                    });
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error starting upload " + item.id + ": " + e.getMessage());
+            complete(item, null, "Failed to start upload: " + e.getMessage());
+            return;
+        }
+
+        // Anything else than our own chunked upload id is a MediaManager request
+        if (requestId != null && !requestId.equals(item.uploadId)) {
+            synchronized (this) {
+                if (queued.get(item.getKey()) == item) {
+                    item.requestId = requestId;
+                    Item record = new Item();
+                    record.op = OP_DISPATCH;
+                    record.id = item.id;
+                    record.requestId = requestId;
+                    append(record);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finish a running item, report its result and start the next ones.
+     * Callbacks are invoked without holding the lock, a second call for the same item is ignored.
+     */
+    private void complete(Item item, @Nullable Map<String, Object> result, @Nullable String errorMsg) {
+        List<CloudinaryManager.CloudinaryCallback<Map<String, Object>>> list;
+        Listener currentListener;
+        List<Item> ready;
+        synchronized (this) {
+            if (queued.get(item.getKey()) != item) {
+                return;
+            }
+            running--;
+            list = finish(item);
+            currentListener = listener;
+            ready = takeReady();
+        }
+        CloudinaryManager.getInstance(context).releaseUpload(item.uploadId);
+
+        if (list != null) {
+            for (CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback : list) {
+                if (errorMsg == null) {
+                    callback.onSuccess(result);
+                } else {
+                    callback.onError(errorMsg);
+                }
+            }
+        } else if (currentListener != null) {
+            currentListener.onUploadFinished(item, result, errorMsg);
+        }
+        dispatch(ready);
+    }
+
+    /**
+     * Record a finished item
+     *
+     * @return Callbacks waiting for it, or null if there are none
+     */
+    private List<CloudinaryManager.CloudinaryCallback<Map<String, Object>>> finish(Item item) {
+        Item done = new Item();
+        done.op = OP_DONE;
+        done.id = item.id;
+        append(done);
+        queued.remove(item.getKey());
+        finishedRecords++;
+
+        if (finishedRecords >= COMPACT_THRESHOLD) {
+            compact();
+        }
+        return callbacks.remove(item.id);
+    }
+
+    /**
+     * Forwards results of restored SDK uploads to the listener
+     */
+    private final UploadCallback handOverCallback = new UploadCallback() {
+        @Override
+        public void onStart(String requestId) {
+        }
+
+        @Override
+        public void onProgress(String requestId, long bytes, long totalBytes) {
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onSuccess(String requestId, Map resultData) {
+            finishHandedOver(requestId, resultData, null);
+        }
+
+        @Override
+        public void onError(String requestId, ErrorInfo error) {
+            finishHandedOver(requestId, null, error.getDescription());
+        }
+
+        @Override
+        public void onReschedule(String requestId, ErrorInfo error) {
+        }
+    };
+
+    private void finishHandedOver(String requestId, Map<String, Object> result, String errorMsg) {
+        Item item;
+        Listener currentListener;
+        synchronized (this) {
+            item = handedOver.remove(requestId);
+            currentListener = listener;
+        }
+        if (item != null && currentListener != null) {
+            currentListener.onUploadFinished(item, result, errorMsg);
+        }
+    }
+
+    /**
+     * Queue one record for the journal, written and synced to disk on the I/O pool
+     */
+    private void append(Item record) {
+        synchronized (journalLock) {
+            journalBacklog.add(gson.toJson(record));
+            scheduleJournalWrite();
+        }
+    }
+
+    private void scheduleJournalWrite() {
+        if (!journalWriting) {
+            journalWriting = true;
+            MediaScheduler.runIo(MediaScheduler.PRIORITY_HIGH, this::writeJournal);
+        }
+    }
+
+    /**
+     * Write the backlog until it is empty, records queued meanwhile share the next sync
+     */
+    private void writeJournal() {
+        while (true) {
+            List<String> records;
+            List<String> snapshot;
+            synchronized (journalLock) {
+                if (journalBacklog.isEmpty() && journalSnapshot == null) {
+                    journalWriting = false;
+                    return;
+                }
+                records = journalBacklog;
+                snapshot = journalSnapshot;
+                journalBacklog = new ArrayList<>();
+                journalSnapshot = null;
+            }
+            if (snapshot != null) {
+                rewriteJournal(snapshot);
+            }
+            if (records.isEmpty()) {
+                continue;
+            }
+            try (FileOutputStream fos = new FileOutputStream(journalFile, true);
+                 Writer writer = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
+                for (String record : records) {
+                    writer.write(record);
+                    writer.write('\n');
+                }
+                writer.flush();
+                fos.getFD().sync();
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing upload journal: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replay the journal, re-queueing every upload that was added but not finished
+     */
+    private void restore() {
+        if (!journalFile.exists()) {
+            return;
+        }
+        Map<String, Item> added = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Item record;
+                try {
+                    record = gson.fromJson(line, Item.class);
+                } catch (Exception e) {
+                    // A torn last line from a crash mid-write, ignore it
+                    Log.e(TAG, "Skipping invalid journal record");
+                    continue;
+                }
+                if (record == null || record.id == null) {
+                    continue;
+                }
+                if (OP_ADD.equals(record.op)) {
+                    added.put(record.id, record);
+                } else if (OP_DONE.equals(record.op)) {
+                    added.remove(record.id);
+                } else if (OP_DISPATCH.equals(record.op) && added.containsKey(record.id)) {
+                    added.get(record.id).requestId = record.requestId;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading upload journal: " + e.getMessage());
+        }
+
+        CloudinaryManager cloudinaryManager = CloudinaryManager.getInstance(context);
+        for (Item item : added.values()) {
+            if (item.requestId != null) {
+                // MediaManager reschedules its own requests, dispatching again would upload twice.
+                // Not written back by compact(), the SDK owns it from now on.
+                Log.d(TAG, "Upload " + item.id + " is owned by the SDK as " + item.requestId);
+                handedOver.put(item.requestId, item);
+                continue;
+            }
+            if (queued.containsKey(item.getKey())) {
+                continue;
+            }
+            if (item.uploadId == null) {
+                item.uploadId = UUID.randomUUID().toString();
+            }
+            // Resumed by this queue's dispatch, not by resumeChunkedUploads
+            cloudinaryManager.claimUpload(item.uploadId);
+            queued.put(item.getKey(), item);
+            pending.add(item);
+        }
+        Log.d(TAG, "Restored " + pending.size() + " queued uploads, " + handedOver.size() + " owned by the SDK");
+        compact();
+    }
+
+    /**
+     * Rewrite the journal with only the unfinished uploads. The snapshot already covers
+     * every record still in the backlog, so those are dropped.
+     */
+    private void compact() {
+        List<String> snapshot = new ArrayList<>(queued.size());
+        for (Item item : queued.values()) {
+            snapshot.add(gson.toJson(item));
+        }
+        finishedRecords = 0;
+        synchronized (journalLock) {
+            journalBacklog = new ArrayList<>();
+            journalSnapshot = snapshot;
+            scheduleJournalWrite();
+        }
+    }
+
+    private void rewriteJournal(List<String> records) {
+        File temp = new File(journalFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp);
+             Writer writer = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
+            for (String record : records) {
+                writer.write(record);
+                writer.write('\n');
+            }
+            writer.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error compacting upload journal: " + e.getMessage());
+            return;
+        }
+        if (!temp.renameTo(journalFile)) {
+            Log.e(TAG, "Failed to replace upload journal");
+        }
+    }
+}
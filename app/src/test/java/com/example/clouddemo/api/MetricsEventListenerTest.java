@@ -0,0 +1,41 @@
+package com.example.clouddemo.api;
+
+import org.junit.Test;
+
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the endpoint keys of sampled network metrics
+ */
+public class MetricsEventListenerTest {
+    private static String endpointOf(String method, String url) {
+        return MetricsEventListener.endpointOf(new Request.Builder().url(url).method(method,
+                "GET".equals(method) ? null : RequestBody.create(new byte[0], null)).build());
+    }
+
+    @Test
+    public void endpointOf_keepsApiPaths() {
+        assertEquals("POST 10.0.2.2/api/v1/getSignature",
+                endpointOf("POST", "http://10.0.2.2:8080/api/v1/getSignature"));
+        assertEquals("POST api.cloudinary.com/v1_1/demo/video/upload",
+                endpointOf("POST", "https://api.cloudinary.com/v1_1/demo/video/upload"));
+    }
+
+    @Test
+    public void endpointOf_collapsesDeliveredAssets() {
+        String expected = "GET res.cloudinary.com/demo/image/upload/*";
+        assertEquals(expected, endpointOf("GET",
+                "https://res.cloudinary.com/demo/image/upload/w_320,c_limit/v1712345678/folder/cat.jpg"));
+        assertEquals(expected, endpointOf("GET", "https://res.cloudinary.com/demo/image/upload/dog.png"));
+    }
+
+    @Test
+    public void endpointOf_replacesIdsAndFileNames() {
+        assertEquals("GET example.com/users/{id}/files/{id}/{file}", endpointOf("GET",
+                "https://example.com/users/42/files/0a527400-8296-45ed-8cc7-c48e70899140/report.pdf"));
+        assertEquals("GET example.com/", endpointOf("GET", "https://example.com/"));
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.clouddemo.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the SSIM metric and the bounds of the quality search
+ */
+public class ImageEncoderTest {
+
+    /**
+     * Fake encoder whose size and SSIM grow linearly with the quality
+     */
+    private static class LinearProbe implements ImageEncoder.QualityProbe {
+        final long bytesPerStep;
+        int lastQuality = -1;
+        int encodes;
+
+        LinearProbe(long bytesPerStep) {
+            this.bytesPerStep = bytesPerStep;
+        }
+
+        @Override
+        public long encode(int quality) {
+            assertTrue("q" + quality + " out of range", quality >= 0 && quality <= 100);
+            lastQuality = quality;
+            encodes++;
+            return quality * bytesPerStep;
+        }
+
+        @Override
+        public double ssim() {
+            assertTrue("ssim before any encode", lastQuality >= 0);
+            return lastQuality / 100.0;
+        }
+    }
+
+    private static int[] plane(int width, int height, Random random, int noise) {
+        int[] luma = new int[width * height + 2];
+        luma[0] = width;
+        luma[1] = height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = (x * 7 + y * 3) % 256;
+                if (noise > 0) {
+                    value += random.nextInt(2 * noise + 1) - noise;
+                }
+                luma[2 + y * width + x] = Math.max(0, Math.min(255, value));
+            }
+        }
+        return luma;
+    }
+
+    @Test
+    public void ssimOfIdenticalPlanesIsOne() {
+        int[] a = plane(64, 48, null, 0);
+        assertEquals(1.0, ImageEncoder.ssim(a, a.clone()), 1e-9);
+    }
+
+    @Test
+    public void ssimDropsWithNoise() {
+        int[] source = plane(64, 48, null, 0);
+        double light = ImageEncoder.ssim(source, plane(64, 48, new Random(1), 8));
+        double heavy = ImageEncoder.ssim(source, plane(64, 48, new Random(1), 64));
+        assertTrue(light < 1.0);
+        assertTrue(heavy < light);
+        assertTrue(heavy > 0);
+    }
+
+    @Test
+    public void ssimOfDifferentSizesIsZero() {
+        assertEquals(0, ImageEncoder.ssim(plane(64, 48, null, 0), plane(48, 64, null, 0)), 0);
+    }
+
+    @Test
+    public void ssimBelowOneWindowComparesWhole() {
+        int size = ImageEncoder.SSIM_WINDOW - 1;
+        int[] a = plane(size, size, null, 0);
+        int[] b = a.clone();
+        assertEquals(1, ImageEncoder.ssim(a, b), 0);
+        b[2] ^= 1;
+        assertEquals(0, ImageEncoder.ssim(a, b), 0);
+    }
+
+    @Test
+    public void searchWithoutCriteriaKeepsQuality() throws Exception {
+        LinearProbe probe = new LinearProbe(1000);
+        assertEquals(85, ImageEncoder.searchQuality(probe, 85, 0, 0));
+        assertEquals(0, probe.encodes);
+    }
+
+    @Test
+    public void searchFindsHighestQualityWithinBudget() throws Exception {
+        LinearProbe probe = new LinearProbe(1000);
+        assertEquals(72, ImageEncoder.searchQuality(probe, 90, 72_500, 0));
+        assertTrue(probe.encodes <= ImageEncoder.MAX_SEARCH_STEPS);
+    }
+
+    @Test
+    public void searchStopsAtMinQualityWhenBudgetUnreachable() throws Exception {
+        LinearProbe probe = new LinearProbe(1000);
+        assertEquals(ImageEncoder.MIN_QUALITY, ImageEncoder.searchQuality(probe, 90, 1, 0));
+        assertTrue(probe.encodes <= ImageEncoder.MAX_SEARCH_STEPS);
+    }
+
+    @Test
+    public void searchNeverExceedsMaxQuality() throws Exception {
+        LinearProbe probe = new LinearProbe(1000);
+        assertEquals(90, ImageEncoder.searchQuality(probe, 90, Long.MAX_VALUE, 0));
+        // A maximum below the usual floor is also the floor
+        assertEquals(20, ImageEncoder.searchQuality(new LinearProbe(1000), 20, 1, 0.99));
+    }
+
+    @Test
+    public void searchLowersQualityToSsimFloor() throws Exception {
+        LinearProbe probe = new LinearProbe(1000);
+        assertEquals(60, ImageEncoder.searchQuality(probe, 90, 0, 0.6));
+        assertTrue(probe.encodes <= ImageEncoder.MAX_SEARCH_STEPS);
+    }
+
+    @Test
+    public void searchAppliesBudgetBeforeSsimFloor() throws Exception {
+        LinearProbe probe = new LinearProbe(1000);
+        // The budget caps at 72, the floor would allow 60, a floor above the cap keeps the cap
+        assertEquals(60, ImageEncoder.searchQuality(probe, 90, 72_500, 0.6));
+        assertEquals(72, ImageEncoder.searchQuality(new LinearProbe(1000), 90, 72_500, 0.95));
+        assertTrue(probe.encodes <= 2 * ImageEncoder.MAX_SEARCH_STEPS);
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import com.cloudinary.android.signed.Signature;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the chunked upload protocol against a mock upload api
+ */
+public class ChunkedUploaderTest {
+    private static final int CHUNK_SIZE = 1024;
+    private static final int FILE_SIZE = 2500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private UploadJournal journal;
+    private ChunkedUploader uploader;
+    private File file;
+
+    private final AtomicReference<Map<String, Object>> result = new AtomicReference<>();
+    private final AtomicReference<String> error = new AtomicReference<>();
+    private final CloudinaryManager.CloudinaryCallback<Map<String, Object>> callback =
+            new CloudinaryManager.CloudinaryCallback<Map<String, Object>>() {
+                @Override
+                public void onSuccess(Map<String, Object> value) {
+                    result.set(value);
+                }
+
+                @Override
+                public void onError(String errorMsg) {
+                    error.set(errorMsg);
+                }
+
+                @Override
+                public void onProgress(int progress) {
+                }
+            };
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        journal = new UploadJournal(folder.newFolder("journal"));
+        SignatureCache signatureCache = new SignatureCache(
+                configUrl -> new Signature("signed", "key", System.currentTimeMillis() / 1000));
+        uploader = new ChunkedUploader(new OkHttpClient(), signatureCache, journal,
+                server.url("/v1_1/demo").toString());
+
+        file = folder.newFile("video.mp4");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[FILE_SIZE]);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private UploadJournal.Entry createEntry() throws Exception {
+        Map<String, Object> options = new HashMap<>();
+        options.put("resource_type", "video");
+        UploadJournal.Entry entry = uploader.create(file, "video", options, null);
+        // Cloudinary's 5 MB minimum doesn't apply to the mock server
+        entry.chunkSize = CHUNK_SIZE;
+        journal.save(entry);
+        return entry;
+    }
+
+    @Test
+    public void upload_sendsEveryChunkWithUploadIdAndContentRange() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"done\":false}"));
+        server.enqueue(new MockResponse().setBody("{\"done\":false}"));
+        server.enqueue(new MockResponse().setBody("{\"public_id\":\"video\",\"url\":\"http://cdn/video.mp4\"}"));
+        UploadJournal.Entry entry = createEntry();
+
+        uploader.upload(entry, callback);
+
+        assertNull(error.get());
+        assertEquals("video", result.get().get("public_id"));
+        String[] ranges = {"bytes 0-1023/2500", "bytes 1024-2047/2500", "bytes 2048-2499/2500"};
+        for (String range : ranges) {
+            RecordedRequest request = server.takeRequest();
+            assertEquals("/v1_1/demo/video/upload", request.getPath());
+            assertEquals(entry.uploadId, request.getHeader("X-Unique-Upload-Id"));
+            assertEquals(range, request.getHeader("Content-Range"));
+        }
+        // A finished upload leaves nothing to resume
+        assertNull(journal.load(entry.uploadId));
+    }
+
+    @Test
+    public void upload_resumesFromTheJournalOffset() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"done\":false}"));
+        server.enqueue(new MockResponse().setBody("{\"done\":false}"));
+        // Client errors are not retried
+        server.enqueue(new MockResponse().setResponseCode(400).setBody("{\"error\":\"interrupted\"}"));
+        UploadJournal.Entry entry = createEntry();
+
+        uploader.upload(entry, callback);
+
+        assertNotNull(error.get());
+        UploadJournal.Entry saved = journal.load(entry.uploadId);
+        assertEquals(2048, saved.nextOffset);
+
+        server.enqueue(new MockResponse().setBody("{\"public_id\":\"video\"}"));
+        error.set(null);
+        uploader.upload(saved, callback);
+
+        assertNull(error.get());
+        assertEquals("video", result.get().get("public_id"));
+        assertEquals(4, server.getRequestCount());
+        for (int i = 0; i < 3; i++) {
+            server.takeRequest();
+        }
+        RecordedRequest resumed = server.takeRequest();
+        assertEquals(entry.uploadId, resumed.getHeader("X-Unique-Upload-Id"));
+        assertEquals("bytes 2048-2499/2500", resumed.getHeader("Content-Range"));
+    }
+
+    @Test
+    public void upload_signsAgainWhenTheCachedSignatureIsAboutToExpire() throws Exception {
+        long now = System.currentTimeMillis() / 1000;
+        long stale = now - 50 * 60;
+        AtomicInteger loads = new AtomicInteger();
+        SignatureCache signatureCache = new SignatureCache(configUrl ->
+                new Signature("signed", "key", loads.getAndIncrement() == 0 ? stale : now));
+        uploader = new ChunkedUploader(new OkHttpClient(), signatureCache, journal,
+                server.url("/v1_1/demo").toString());
+        UploadJournal.Entry entry = createEntry();
+        // Cached by an earlier upload with the same options, still inside the cache's own expiry
+        assertEquals(stale, signatureCache.get(new HashMap<String, Object>(entry.options)).getTimestamp());
+
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setBody("{\"public_id\":\"video\"}"));
+        }
+        uploader.upload(entry, callback);
+
+        assertNull(error.get());
+        assertEquals(2, loads.get());
+        for (int i = 0; i < 3; i++) {
+            String body = server.takeRequest().getBody().readUtf8();
+            assertTrue(body.contains(String.valueOf(now)));
+            assertFalse(body.contains(String.valueOf(stale)));
+        }
+    }
+
+    @Test
+    public void upload_finishesWhenEveryChunkWasAcknowledgedBeforeARestart() throws Exception {
+        UploadJournal.Entry entry = createEntry();
+        // The process died after the last chunk was saved, before finish ran
+        entry.nextOffset = FILE_SIZE;
+        entry.result = new HashMap<>();
+        entry.result.put("public_id", "video");
+        journal.save(entry);
+
+        uploader.upload(journal.load(entry.uploadId), callback);
+
+        assertNull(error.get());
+        assertEquals("video", result.get().get("public_id"));
+        assertEquals(0, server.getRequestCount());
+        assertNull(journal.load(entry.uploadId));
+    }
+
+    @Test
+    public void upload_failsWhenEveryChunkWasAcknowledgedWithoutAResult() throws Exception {
+        UploadJournal.Entry entry = createEntry();
+        entry.nextOffset = FILE_SIZE;
+        journal.save(entry);
+
+        uploader.upload(journal.load(entry.uploadId), callback);
+
+        assertNotNull(error.get());
+        assertEquals(0, server.getRequestCount());
+        assertNull(journal.load(entry.uploadId));
+    }
+
+    @Test
+    public void chunkBody_streamsTheRangeEveryTimeItIsWritten() throws Exception {
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            RequestBody body = ChunkedUploader.chunkBody(channel, CHUNK_SIZE, CHUNK_SIZE);
+            assertEquals(CHUNK_SIZE, body.contentLength());
+            byte[] expected = Arrays.copyOfRange(content, CHUNK_SIZE, 2 * CHUNK_SIZE);
+            // A retry writes the body again
+            for (int attempt = 0; attempt < 2; attempt++) {
+                Buffer sink = new Buffer();
+                body.writeTo(sink);
+                assertArrayEquals(expected, sink.readByteArray());
+            }
+
+            try {
+                ChunkedUploader.chunkBody(channel, 2 * CHUNK_SIZE, CHUNK_SIZE).writeTo(new Buffer());
+                fail("Read past the end of the file");
+            } catch (IOException expectedError) {
+                // The file is shorter than the chunk
+            }
+        }
+    }
+
+    @Test
+    public void cancelAll_cancelsEveryRunningUpload() {
+        assertTrue(uploader.begin("a"));
+        assertTrue(uploader.begin("b"));
+        uploader.cancelAll();
+        assertTrue(uploader.isCancelled("a"));
+        assertTrue(uploader.isCancelled("b"));
+        assertFalse(uploader.isCancelled("c"));
+    }
+
+    @Test
+    public void cancel_onlyRecordsRunningUploads() throws Exception {
+        UploadJournal.Entry entry = createEntry();
+
+        // e.g. a MediaManager request id
+        uploader.cancel("request-id");
+        assertFalse(uploader.isCancelled("request-id"));
+
+        assertTrue(uploader.begin(entry.uploadId));
+        assertFalse(uploader.begin(entry.uploadId));
+        uploader.cancel(entry.uploadId);
+        assertTrue(uploader.isCancelled(entry.uploadId));
+
+        uploader.end(entry.uploadId);
+        assertFalse(uploader.isCancelled(entry.uploadId));
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for canonical transformation compiling
+ */
+public class CompiledTransformationTest {
+    private static Map<String, String> params(String... keyValues) {
+        // Insertion ordered, so the tests control the order the parameters are put in
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            map.put(keyValues[i], keyValues[i + 1]);
+        }
+        return map;
+    }
+
+    @Test
+    public void of_sortsParametersByKey() {
+        CompiledTransformation transformation = CompiledTransformation.of(params("w", "200", "c", "fill", "h", "200"));
+        assertEquals("c_fill,h_200,w_200", transformation.getComponent());
+    }
+
+    @Test
+    public void of_isIndependentOfInsertionOrder() {
+        CompiledTransformation first = CompiledTransformation.of(params("w", "200", "q", "auto", "c", "fill"));
+        CompiledTransformation second = CompiledTransformation.of(params("c", "fill", "w", "200", "q", "auto"));
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertEquals(first.getComponent(), second.getComponent());
+    }
+
+    @Test
+    public void of_multiLetterKeysSortAfterTheirPrefix() {
+        CompiledTransformation transformation = CompiledTransformation.of(params("dpr", "2.0", "b", "white", "bo", "2px_solid_red"));
+        assertEquals("b_white,bo_2px_solid_red,dpr_2.0", transformation.getComponent());
+    }
+
+    @Test
+    public void of_emptyOrNullIsEmpty() {
+        assertSame(CompiledTransformation.EMPTY, CompiledTransformation.of(null));
+        assertSame(CompiledTransformation.EMPTY, CompiledTransformation.of(new HashMap<>()));
+        assertTrue(CompiledTransformation.EMPTY.getSteps().isEmpty());
+    }
+
+    @Test
+    public void of_copiesItsInput() {
+        Map<String, String> map = params("w", "200");
+        CompiledTransformation transformation = CompiledTransformation.of(map);
+        map.put("h", "100");
+        assertEquals("w_200", transformation.getComponent());
+    }
+
+    @Test
+    public void helper_compileMatchesOfAndIsCached() {
+        CloudinaryTransformationHelper helper = new CloudinaryTransformationHelper().resize(200, 100).crop("fill");
+        CompiledTransformation compiled = helper.compile();
+        assertEquals(CompiledTransformation.of(params("c", "fill", "h", "100", "w", "200")), compiled);
+        assertSame(compiled, helper.compile());
+
+        helper.quality(80);
+        assertEquals("c_fill,h_100,q_80,w_200", helper.compile().getComponent());
+    }
+
+    @Test
+    public void helper_picksUpChangesMadeThroughTheMap() {
+        CloudinaryTransformationHelper helper = new CloudinaryTransformationHelper().width(200);
+        assertEquals("w_200", helper.compile().getComponent());
+
+        helper.getTransformations().put("h", "100");
+        assertEquals("h_100,w_200", helper.compile().getComponent());
+        helper.getTransformations().remove("w");
+        assertEquals("h_100", helper.compile().getComponent());
+    }
+
+    @Test
+    public void chain_flattensNestedChains() {
+        CompiledTransformation a = CompiledTransformation.of(params("w", "200"));
+        CompiledTransformation b = CompiledTransformation.of(params("l", "logo"));
+        CompiledTransformation c = CompiledTransformation.of(params("f", "auto"));
+
+        CompiledTransformation nested = a.then(b.then(c));
+        CompiledTransformation flat = CompiledTransformation.chain(Arrays.asList(a, b, c));
+        assertEquals("w_200/l_logo/f_auto", nested.getComponent());
+        assertEquals(flat, nested);
+        assertEquals(Arrays.asList(a, b, c), nested.getSteps());
+        // Steps are shared, not rendered again
+        assertSame(b, nested.getSteps().get(1));
+        assertEquals(nested, a.then(b).then(c));
+    }
+
+    @Test
+    public void chain_skipsEmptySteps() {
+        CompiledTransformation a = CompiledTransformation.of(params("w", "200"));
+        assertSame(a, a.then(CompiledTransformation.EMPTY));
+        assertSame(a, CompiledTransformation.EMPTY.then(a));
+        assertSame(CompiledTransformation.EMPTY,
+                CompiledTransformation.chain(Arrays.asList(CompiledTransformation.EMPTY, null)));
+    }
+
+    @Test
+    public void helper_emptyThenAddsNoStep() {
+        CloudinaryTransformationHelper helper = new CloudinaryTransformationHelper()
+                .then()
+                .width(200)
+                .then()
+                .then()
+                .autoFormat()
+                .then();
+        assertEquals("w_200/f_auto", helper.compile().getComponent());
+        assertEquals(2, helper.compile().getSteps().size());
+    }
+
+    @Test
+    public void helper_thenAppendsCompiledChainsFlat() {
+        CompiledTransformation watermark = new CloudinaryTransformationHelper()
+                .overlay("logo").then().effect("opacity", "50").compile();
+        CompiledTransformation compiled = new CloudinaryTransformationHelper()
+                .width(200)
+                .then(watermark)
+                .autoFormat()
+                .compile();
+        assertEquals("w_200/l_logo/e_opacity:50/f_auto", compiled.getComponent());
+        assertEquals(4, compiled.getSteps().size());
+    }
+
+    @Test
+    public void helper_secondOverlayStartsANewStep() {
+        CompiledTransformation compiled = new CloudinaryTransformationHelper()
+                .width(200)
+                .overlay("logo")
+                .overlay("badge")
+                .compile();
+        assertEquals("l_logo,w_200/l_badge", compiled.getComponent());
+    }
+
+    @Test
+    public void helper_textOverlayAfterImageOverlayStartsANewStep() {
+        CompiledTransformation compiled = new CloudinaryTransformationHelper()
+                .overlay("logo")
+                .textOverlay("Hello", "Arial", 20, "white")
+                .compile();
+        assertEquals("l_logo/co_white,l_text:Arial_20:Hello", compiled.getComponent());
+    }
+}
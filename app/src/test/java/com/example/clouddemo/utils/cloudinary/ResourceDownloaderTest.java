@@ -0,0 +1,233 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for resuming downloads against a mock CDN with throttled bodies
+ */
+public class ResourceDownloaderTest {
+    private static final int RESOURCE_SIZE = 64 * 1024;
+    private static final String ETAG = "\"v1\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ResourceDownloader downloader;
+    private File destination;
+    private File partFile;
+    private File validatorFile;
+    private byte[] resource;
+
+    private final AtomicReference<File> result = new AtomicReference<>();
+    private final AtomicReference<String> error = new AtomicReference<>();
+    private final CloudinaryManager.CloudinaryCallback<File> callback =
+            new CloudinaryManager.CloudinaryCallback<File>() {
+                @Override
+                public void onSuccess(File value) {
+                    result.set(value);
+                }
+
+                @Override
+                public void onError(String errorMsg) {
+                    error.set(errorMsg);
+                }
+
+                @Override
+                public void onProgress(int progress) {
+                }
+            };
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        downloader = new ResourceDownloader(new OkHttpClient());
+
+        destination = new File(folder.getRoot(), "video.mp4");
+        partFile = new File(destination.getPath() + ".part");
+        validatorFile = new File(partFile.getPath() + ".etag");
+        resource = new byte[RESOURCE_SIZE];
+        for (int i = 0; i < resource.length; i++) {
+            resource[i] = (byte) i;
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private MockResponse throttled(MockResponse response, byte[] body) {
+        return response.setBody(new Buffer().write(body))
+                .throttleBody(8 * 1024, 5, TimeUnit.MILLISECONDS);
+    }
+
+    private void download() {
+        result.set(null);
+        error.set(null);
+        downloader.download(server.url("/video/upload/v1/video.mp4").toString(), destination,
+                new ResourceDownloader.Task(), callback);
+    }
+
+    private void writePart(int length, String validator) throws Exception {
+        Files.write(partFile.toPath(), Arrays.copyOf(resource, length));
+        if (validator != null) {
+            Files.write(validatorFile.toPath(), validator.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void resumesWithIfRangeAfterDisconnect() throws Exception {
+        server.enqueue(throttled(new MockResponse().setHeader("ETag", ETAG), resource)
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        download();
+        assertNotNull(error.get());
+        long received = partFile.length();
+        assertTrue(received > 0 && received < RESOURCE_SIZE);
+        assertEquals(ETAG, new String(Files.readAllBytes(validatorFile.toPath()), StandardCharsets.UTF_8));
+
+        server.enqueue(throttled(new MockResponse().setResponseCode(206).setHeader("ETag", ETAG)
+                        .setHeader("Content-Range", "bytes " + received + "-" + (RESOURCE_SIZE - 1) + "/" + RESOURCE_SIZE),
+                Arrays.copyOfRange(resource, (int) received, RESOURCE_SIZE)));
+        download();
+        assertNull(error.get());
+        assertArrayEquals(resource, Files.readAllBytes(destination.toPath()));
+        assertFalse(partFile.exists());
+        assertFalse(validatorFile.exists());
+
+        server.takeRequest();
+        RecordedRequest resume = server.takeRequest();
+        assertEquals("bytes=" + received + "-", resume.getHeader("Range"));
+        assertEquals(ETAG, resume.getHeader("If-Range"));
+    }
+
+    @Test
+    public void restartsWhenResourceChanged() throws Exception {
+        writePart(1000, ETAG);
+        byte[] changed = Arrays.copyOf(resource, RESOURCE_SIZE / 2);
+        changed[0] = 42;
+        // If-Range didn't match, the server sends the new version in full
+        server.enqueue(throttled(new MockResponse().setHeader("ETag", "\"v2\""), changed));
+
+        download();
+        assertNull(error.get());
+        assertArrayEquals(changed, Files.readAllBytes(destination.toPath()));
+        assertEquals(ETAG, server.takeRequest().getHeader("If-Range"));
+    }
+
+    @Test
+    public void restartsWhenContentRangeStartDiffers() throws Exception {
+        writePart(1000, ETAG);
+        server.enqueue(throttled(new MockResponse().setResponseCode(206).setHeader("ETag", ETAG)
+                .setHeader("Content-Range", "bytes 0-" + (RESOURCE_SIZE - 1) + "/" + RESOURCE_SIZE), resource));
+        server.enqueue(throttled(new MockResponse().setHeader("ETag", ETAG), resource));
+
+        download();
+        assertNull(error.get());
+        assertArrayEquals(resource, Files.readAllBytes(destination.toPath()));
+        assertEquals("bytes=1000-", server.takeRequest().getHeader("Range"));
+        assertNull(server.takeRequest().getHeader("Range"));
+    }
+
+    @Test
+    public void restartsWithoutValidator() throws Exception {
+        writePart(1000, null);
+        server.enqueue(throttled(new MockResponse(), resource));
+
+        download();
+        assertNull(error.get());
+        assertArrayEquals(resource, Files.readAllBytes(destination.toPath()));
+        assertNull(server.takeRequest().getHeader("Range"));
+    }
+
+    @Test
+    public void segmentedRestartsSingleStreamWhenResourceChanged() throws Exception {
+        final long advertised = 4L * 1024 * 1024;
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String range = request.getHeader("Range");
+                if ("bytes=0-0".equals(range)) {
+                    return new MockResponse().setResponseCode(206).setHeader("ETag", ETAG)
+                            .setHeader("Content-Range", "bytes 0-0/" + advertised).setBody("x");
+                }
+                // The resource changed after the probe, every If-Range misses
+                return throttled(new MockResponse().setHeader("ETag", "\"v2\""), resource);
+            }
+        });
+
+        downloader.downloadSegmented(server.url("/video/upload/v1/video.mp4").toString(), destination, 2,
+                new ResourceDownloader.Task(), callback);
+        assertNull(error.get());
+        assertArrayEquals(resource, Files.readAllBytes(destination.toPath()));
+        // Probe, at most one request per segment without retries, then the single stream
+        assertTrue(server.getRequestCount() <= 4);
+    }
+
+    @Test
+    public void segmentFailureIsReportedWithoutCancelingTheTask() throws Exception {
+        final long advertised = 4L * 1024 * 1024;
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("bytes=0-0".equals(request.getHeader("Range"))) {
+                    return new MockResponse().setResponseCode(206).setHeader("ETag", ETAG)
+                            .setHeader("Content-Range", "bytes 0-0/" + advertised).setBody("x");
+                }
+                return new MockResponse().setResponseCode(503);
+            }
+        });
+
+        ResourceDownloader.Task task = new ResourceDownloader.Task();
+        downloader.downloadSegmented(server.url("/video/upload/v1/video.mp4").toString(), destination, 2,
+                task, callback);
+        assertNull(result.get());
+        assertNotNull(error.get());
+        assertTrue(error.get(), error.get().startsWith("Failed to download resource"));
+        assertTrue(error.get(), error.get().contains("503"));
+        assertFalse(task.isCancelled());
+        assertFalse(destination.exists());
+    }
+
+    @Test
+    public void segmentCountIsClamped() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(206).setHeader("ETag", ETAG)
+                .setHeader("Content-Range", "bytes 0-0/" + RESOURCE_SIZE).setBody("x"));
+        server.enqueue(throttled(new MockResponse().setHeader("ETag", ETAG), resource));
+
+        // Zero segments is a single stream download instead of an error
+        downloader.downloadSegmented(server.url("/video/upload/v1/video.mp4").toString(), destination, 0,
+                new ResourceDownloader.Task(), callback);
+        assertNull(error.get());
+        assertArrayEquals(resource, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void parsesContentRangeStart() {
+        assertEquals(1000, ResourceDownloader.contentRangeStart("bytes 1000-1999/2000"));
+        assertEquals(-1, ResourceDownloader.contentRangeStart("bytes */2000"));
+        assertEquals(-1, ResourceDownloader.contentRangeStart(null));
+    }
+}
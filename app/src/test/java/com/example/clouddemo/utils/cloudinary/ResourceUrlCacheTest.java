@@ -0,0 +1,59 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for delivery URL caching and its CLOCK eviction
+ */
+public class ResourceUrlCacheTest {
+    private static final String BASE_URL = "https://res.cloudinary.com/demo/";
+
+    @Test
+    public void get_buildsAndReusesUrl() {
+        ResourceUrlCache cache = new ResourceUrlCache(BASE_URL, 4);
+        CompiledTransformation transformation = new CloudinaryTransformationHelper().width(200).compile();
+
+        String url = cache.get("sample", "image", transformation);
+        assertEquals(BASE_URL + "image/upload/w_200/sample", url);
+        assertSame(url, cache.get("sample", "image", transformation));
+        assertEquals(BASE_URL + "video/upload/clip", cache.get("clip", "video", CompiledTransformation.EMPTY));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void get_evictsEntriesNotReadSinceTheHandPassed() {
+        ResourceUrlCache cache = new ResourceUrlCache(BASE_URL, 3);
+        CompiledTransformation none = CompiledTransformation.EMPTY;
+        String a = cache.get("a", "image", none);
+        cache.get("b", "image", none);
+        cache.get("c", "image", none);
+
+        // a is read again, b is the oldest entry that was not
+        cache.get("a", "image", none);
+        cache.get("d", "image", none);
+        assertEquals(3, cache.size());
+
+        long misses = cache.getMissCount();
+        assertSame(a, cache.get("a", "image", none));
+        cache.get("c", "image", none);
+        cache.get("d", "image", none);
+        assertEquals(misses, cache.getMissCount());
+
+        cache.get("b", "image", none);
+        assertEquals(misses + 1, cache.getMissCount());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void get_staysBoundedWhenEverythingIsRead() {
+        ResourceUrlCache cache = new ResourceUrlCache(BASE_URL, 8);
+        for (int i = 0; i < 100; i++) {
+            cache.get("id" + i, "image", CompiledTransformation.EMPTY);
+            cache.get("id" + i, "image", CompiledTransformation.EMPTY);
+        }
+        assertEquals(8, cache.size());
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for responsive width bucketing
+ */
+public class ResponsiveBreakpointsTest {
+    @Test
+    public void bucketFor_snapsUpToNextBucket() {
+        // 360dp phone at xxhdpi needs 1080px
+        assertEquals(1080, ResponsiveBreakpoints.bucketFor(360, 3f));
+        // 411dp at 2.625 needs 1079px
+        assertEquals(1080, ResponsiveBreakpoints.bucketFor(411, 2.625f));
+        // 100dp thumbnail at xhdpi needs 200px
+        assertEquals(320, ResponsiveBreakpoints.bucketFor(100, 2f));
+    }
+
+    @Test
+    public void bucketFor_exactBucketIsKept() {
+        assertEquals(640, ResponsiveBreakpoints.bucketForPixels(640));
+        assertEquals(160, ResponsiveBreakpoints.bucketForPixels(1));
+    }
+
+    @Test
+    public void bucketFor_isCappedAtLargestBucket() {
+        assertEquals(2560, ResponsiveBreakpoints.bucketForPixels(4000));
+    }
+
+    @Test
+    public void estimateBytesSaved_comparesDecodedSizes() {
+        // 4000x3000 original shown at 1080 wide: 48MB decoded vs 1080x810
+        long expected = (4000L * 3000 - 1080L * 810) * 4;
+        assertEquals(expected, ResponsiveBreakpoints.estimateBytesSaved(4000, 3000, 1080));
+        assertEquals(0, ResponsiveBreakpoints.estimateBytesSaved(800, 600, 1080));
+    }
+
+    @Test
+    public void responsive_defaultsToAutoFormatAndQuality() {
+        CompiledTransformation transformation = new CloudinaryTransformationHelper()
+                .responsive(360, 3f)
+                .compile();
+        assertEquals("c_limit,f_auto,q_auto,w_1080", transformation.getComponent());
+    }
+
+    @Test
+    public void responsive_keepsExplicitQuality() {
+        CompiledTransformation transformation = new CloudinaryTransformationHelper()
+                .quality(60)
+                .responsive(100, 2f)
+                .compile();
+        assertEquals("c_limit,f_auto,q_60,w_320", transformation.getComponent());
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.clouddemo.utils.cloudinary;
+
+import com.cloudinary.android.signed.Signature;
+import com.example.clouddemo.api.CloudinaryService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for signature batching against a mock backend
+ */
+public class SignatureBatcherTest {
+    private static final long WINDOW_MS = 5000;
+
+    private MockWebServer server;
+    private CloudinaryService service;
+    // Config url -> thread that signed it through the fallback
+    private final Map<String, Thread> fallbackThreads = new ConcurrentHashMap<>();
+    private final SignatureCache.Loader fallback = configUrl -> {
+        fallbackThreads.put(configUrl, Thread.currentThread());
+        return new Signature("single-" + configUrl, "key", 1L);
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        service = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(CloudinaryService.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void loneRequest_isSentWithoutWaitingForTheWindow() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"code\":200,\"data\":[{\"api_key\":\"key\","
+                + "\"cloud_name\":\"demo\",\"signature\":\"batched\",\"timestamp\":42}]}"));
+        SignatureBatcher batcher = new SignatureBatcher(service, "token", fallback, WINDOW_MS, 10);
+
+        long startMs = System.currentTimeMillis();
+        Signature signature = batcher.sign("folder=a");
+
+        assertTrue(System.currentTimeMillis() - startMs < WINDOW_MS);
+        assertEquals("batched", signature.getSignature());
+        assertEquals(42L, signature.getTimestamp());
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/api/v1/getSignatures", request.getPath());
+        assertEquals("Bearer token", request.getHeader("Authorization"));
+        assertEquals(1, batcher.getBatchCount());
+        assertTrue(fallbackThreads.isEmpty());
+    }
+
+    @Test
+    public void missingEndpoint_isSkippedByLaterRequests() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        SignatureBatcher batcher = new SignatureBatcher(service, "token", fallback, WINDOW_MS, 10);
+
+        assertEquals("single-folder=a", batcher.sign("folder=a").getSignature());
+        assertEquals("single-folder=b", batcher.sign("folder=b").getSignature());
+
+        assertTrue(batcher.isBatchUnsupported());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void failedBatch_isSignedOnEachCallerThread() throws Exception {
+        // The first call stays in flight long enough for two more callers to queue behind it
+        server.enqueue(new MockResponse().setResponseCode(500).setHeadersDelay(500, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        final SignatureBatcher batcher = new SignatureBatcher(service, "token", fallback, WINDOW_MS, 10);
+
+        final Map<String, Signature> results = new ConcurrentHashMap<>();
+        List<Thread> callers = new ArrayList<>();
+        for (final String configUrl : new String[]{"folder=a", "folder=b", "folder=c"}) {
+            Thread caller = new Thread(() -> {
+                try {
+                    results.put(configUrl, batcher.sign(configUrl));
+                } catch (Exception ignored) {
+                }
+            }, configUrl);
+            callers.add(caller);
+            caller.start();
+            Thread.sleep(100);
+        }
+        long startMs = System.currentTimeMillis();
+        for (Thread caller : callers) {
+            caller.join(WINDOW_MS);
+        }
+
+        // The two queued requests went out together as soon as the first call returned
+        assertTrue(System.currentTimeMillis() - startMs < WINDOW_MS);
+        assertEquals("[\"folder=a\"]", server.takeRequest().getBody().readUtf8());
+        assertEquals("[\"folder=b\",\"folder=c\"]", server.takeRequest().getBody().readUtf8());
+        assertEquals(3, results.size());
+        for (Thread caller : callers) {
+            assertSame(caller, fallbackThreads.get(caller.getName()));
+        }
+        assertFalse(batcher.isBatchUnsupported());
+    }
+}